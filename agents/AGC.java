@@ -4,12 +4,17 @@ import bgu.dcr.az.api.agt.SimpleAgent;
 import bgu.dcr.az.api.ano.Algorithm;
 import bgu.dcr.az.api.ano.Variable;
 import bgu.dcr.az.api.ano.WhenReceived;
+import bgu.dcr.az.api.prob.ImmutableProblem;
 import bgu.dcr.az.api.tools.Assignment;
 
-import java.util.Hashtable;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Random;
+import java.util.Set;
 
+import ext.sim.modules.CostFunctionProblem;
+import utils.AgentEvents;
+import utils.AnytimeTracker;
 import utils.Request;
 
 @Algorithm(name = "AGC", useIdleDetector = false)
@@ -20,9 +25,22 @@ public class AGC extends SimpleAgent {
 	double lambda_0 = 1;
 	@Variable(name = "agentType", defaultValue = "1", description = "Represents agent's behavioral traits and willingness to cooperate")
 	int agentType = 1;
+	@Variable(name = "patience", defaultValue = "0", description = "Rounds without any value change after which the run stops before the end of the timeFrame (0 = never stop early)")
+	int patience = 0;
+	@Variable(name = "seed", defaultValue = "0", description = "Seed of the agents' own random choices, mixed with the problem's alg-seed, for running differently seeded copies of the algorithm as a portfolio (0 = the initial value is drawn by the framework)")
+	long seed = 0;
+	@Variable(name = "pipelined", defaultValue = "false", description = "Propose the next round's value in the same tick as this round's commit (2 ticks per round instead of 3)")
+	boolean pipelined = false;
+	@Variable(name = "announceWinner", defaultValue = "false", description = "Send one Win message to the locally best requester instead of a Neg message to every other requester")
+	boolean announceWinner = false;
+	@Variable(name = "anytime", defaultValue = "false", description = "Track the best assignment of the run over a BFS tree of the agents and report it at the end instead of the last one")
+	boolean anytime = false;
+	@Variable(name = "jfr", defaultValue = "false", description = "Emit Java Flight Recorder events for the agents' phases, budget evaluations and inner loops")
+	boolean jfr = false;
 
 	boolean canImprove;
 	boolean gotNegative;
+	int wins;
 	int nPhases;
 	int phase;
 	int myCurrentRequest;
@@ -30,28 +48,70 @@ public class AGC extends SimpleAgent {
 	double mu_t_minus_1;
 	double c_St_minus_1;
 	double Phi_t_minus_1;
+	int round;
+	int lastChangeRound;
+	boolean changeToForward;
+	boolean viewChanged;
+	// whether the agent changed its value in the commit phase of the previous round
+	boolean committedLastRound;
 	Assignment baselineLocalView;
 	Assignment localView;
+	// per-agent state so that a round touches nothing shared with other agents
+	Random randNum = new Random();
+	int[] domainOrder;
+	// the problem the costs and the neighbors are read from (see CostFunctionProblem)
+	ImmutableProblem problem;
+	Set<Integer> neighbors;
+	// the distributed anytime mechanism, with anytime, and the coordinated early stop, with patience
+	AnytimeTracker anytimeTracker;
+	// the messages sent in the current phase, with jfr
+	int sends;
+	HashSet<Integer> rejected = new HashSet<Integer>();
 	Hashtable<Integer, Request> valueAssignments = new Hashtable<Integer, Request>();
 	Hashtable<Integer, Request> requests = new Hashtable<Integer, Request>();
 
 	@Override
 	public void start() {
+		problem = CostFunctionProblem.of(this.getProblem());
+		neighbors = problem.getNeighbors(getId());
 		initializeVariables();
-		chooseNewValue();
+		chooseNewValue(round);
 	}
 
 	private void initializeVariables() {
 		nPhases = 3;
 		phase = 1;
 		gotNegative = false;
+		wins = 0;
 		Phi_t_minus_1 = 1;
 		bestCostReduction = 0;
-		myCurrentRequest = random(this.getDomain());
+		round = 0;
+		lastChangeRound = 0;
+		changeToForward = false;
+		viewChanged = false;
+		committedLastRound = false;
+		randNum.setSeed(agentSeed());
+		domainOrder = new int[this.getDomainSize()];
+		int k = 0;
+		for (int val : this.getDomain())
+			domainOrder[k++] = val;
+		myCurrentRequest = seed == 0 ? random(this.getDomain()) : randNum.nextInt(this.getDomainSize());
 		baselineLocalView = new Assignment(getId(), myCurrentRequest);
 		localView = new Assignment(getId(), myCurrentRequest);
 		submitCurrentAssignment(myCurrentRequest);
-		send("valueAssignment", getId(), myCurrentRequest, myCurrentRequest, bestCostReduction).toNeighbores();
+		sendToNeighbors("valueAssignment", getId(), myCurrentRequest, myCurrentRequest, bestCostReduction);
+		if (anytime || patience > 0) {
+			anytimeTracker = new AnytimeTracker(getId(), neighbors, timeFrame * nPhases, anytime, new AnytimeTracker.Host() {
+				public void send(String name, int to, Object... args) {
+					sendTo(name, to, args);
+				}
+
+				public long getSystemTimeInTicks() {
+					return AGC.this.getSystemTimeInTicks();
+				}
+			});
+			anytimeTracker.start();
+		}
 	}
 
 	// handling messages functions
@@ -59,11 +119,13 @@ public class AGC extends SimpleAgent {
 	public void handleValueAssignment(int i, int vi, int ri, double gain) {
 		valueAssignments.put(valueAssignments.size(), new Request(i, vi, ri, gain, getSystemTimeInTicks()));
 		localView.assign(i, ri);
+		viewChanged = true;
+		noteChange(round - 1);
 	}
 
 	@WhenReceived("Request")
-	public void handleRequest(int i, int vi, int ri, double gain) {
-		requests.put(requests.size(), new Request(i, vi, ri, gain, getSystemTimeInTicks()));
+	public void handleRequest(int i, int vi, int ri, double gain, int requestRound) {
+		requests.put(requests.size(), new Request(i, vi, ri, gain, getSystemTimeInTicks(), requestRound));
 	}
 
 	@WhenReceived("Neg")
@@ -71,63 +133,235 @@ public class AGC extends SimpleAgent {
 		gotNegative = true;
 	}
 
+	@WhenReceived("Win")
+	public void handleWinMessage(int i) {
+		wins++;
+	}
+
+	@WhenReceived("lastChange")
+	public void handleLastChange(int i, int changeRound) {
+		noteChange(changeRound);
+	}
+
+	@WhenReceived("anytimeTree")
+	public void handleAnytimeTree(int i, int root, int depth, int parent) {
+		anytimeTracker.anytimeTree(i, root, depth, parent);
+	}
+
+	@WhenReceived("anytimeEcho")
+	public void handleAnytimeEcho(int i, int root, int height) {
+		anytimeTracker.anytimeEcho(i, root, height);
+	}
+
+	@WhenReceived("anytimeCost")
+	public void handleAnytimeCost(int i, int round, long cost) {
+		anytimeTracker.anytimeCost(i, round, cost);
+	}
+
+	@WhenReceived("anytimeBest")
+	public void handleAnytimeBest(int round, int firstRound, int height) {
+		anytimeTracker.anytimeBest(round, firstRound, height);
+	}
+
+	@WhenReceived("anytimeStop")
+	public void handleAnytimeStop(int stopRound) {
+		anytimeTracker.anytimeStop(stopRound);
+	}
+
 	// algorithm functions
-	@SuppressWarnings("deprecation")
 	@Override
 	public void onMailBoxEmpty() {
+		if (!jfr) {
+			runPhase();
+			return;
+		}
+		AgentEvents.Phase event = new AgentEvents.Phase();
+		event.begin();
+		int phaseRun = phase;
+		sends = 0;
+		runPhase();
+		if (event.shouldCommit()) {
+			event.algorithm = "AGC";
+			event.agent = getId();
+			event.phase = phaseRun;
+			event.tick = getSystemTimeInTicks();
+			event.sends = sends;
+			event.commit();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void runPhase() {
+		if (anytimeTracker != null && anytimeTracker.isSnapshotDue())
+			anytimeTracker.record(this.getSubmitedCurrentAssignment(), snapshotCost());
 
 		if (getSystemTimeInTicks() <= timeFrame * nPhases) {
 			switch (phase) {
 			case 1:
 				if (getSystemTimeInTicks() == 1) {
 					baselineLocalView = localView.copy();
-					mu_t_minus_1 = this.costOf(baselineLocalView);
-					c_St_minus_1 = this.costOf(baselineLocalView);
+					mu_t_minus_1 = baselineLocalView.calcCost(problem);
+					c_St_minus_1 = baselineLocalView.calcCost(problem);
 				}
-				chooseNewValue();
+				chooseNewValue(round);
+				viewChanged = false;
 				phase = 2;
 				return;
 
 			case 2:
+				// pipelined: the request was computed before the neighbors' commits of the previous round arrived,
+				// so it is withdrawn if any of them changed (its gain may no longer hold)
+				if (pipelined && viewChanged && canImprove) {
+					canImprove = false;
+					bestCostReduction = 0;
+				}
+				viewChanged = false;
 				findBestCostReductionAndSendNegMessages();
 				requests.clear();
 				phase = 3;
 				return;
 
 			case 3:
-				mu_t_minus_1 = (getCurrentBudget(this.localView) + this.costOf(localView)) / (1 + lambda_0);
-				c_St_minus_1 = this.costOf(localView);
+				mu_t_minus_1 = (getCurrentBudget(this.localView) + localView.calcCost(problem)) / (1 + lambda_0);
+				c_St_minus_1 = localView.calcCost(problem);
 				Phi_t_minus_1 = 0;
-				if (gotNegative == false && canImprove == true) {
+				committedLastRound = false;
+				if (!lostRound() && canImprove == true) {
 					Phi_t_minus_1 = 1;
 					int currentAssignment = this.getSubmitedCurrentAssignment();
 					submitCurrentAssignment(myCurrentRequest);
 					localView.assign(this.getId(), myCurrentRequest);
-					send("valueAssignment", getId(), currentAssignment, myCurrentRequest, bestCostReduction)
-							.toNeighbores();
+					sendToNeighbors("valueAssignment", getId(), currentAssignment, myCurrentRequest, bestCostReduction);
+					noteChange(round);
+					committedLastRound = true;
 				}
 				gotNegative = false;
-				phase = 1;
+				wins = 0;
+				if (pipelined) {
+					// the neighbors' Negs of this round were all received, so the next round's request can
+					// already be sent; the neighbors' commits are checked against it in phase 2
+					chooseNewValue(round + 1);
+					viewChanged = false;
+					phase = 2;
+				} else {
+					phase = 1;
+				}
+				endRound();
 			}
 
 		} else {
-			finish();
+			finishRun();
 		}
 	}
 
 	// utility functions
-	private void chooseNewValue() {
-		myCurrentRequest = (Integer) findImprovingAssignment(this.localView);
+	// sends a message to one agent; with jfr, it is counted for the phase event
+	private void sendTo(String msg, int to, Object... args) {
+		if (jfr)
+			sends++;
+		send(msg, args).to(to);
+	}
+
+	// sends a message to all the neighbors; Agent Zero does not know the neighbors of a problem whose costs are
+	// read through a CostFunctionProblem, so the message is then sent to each of them.  With jfr, every
+	// recipient is counted for the phase event
+	private void sendToNeighbors(String msg, Object... args) {
+		if (jfr)
+			sends += neighbors.size();
+		if (!(problem instanceof CostFunctionProblem)) {
+			send(msg, args).toNeighbores();
+			return;
+		}
+		for (int neighbor : neighbors)
+			send(msg, args).to(neighbor);
+	}
+
+	// the seed of the agent's own random choices: the algorithm seed the generator published for the problem
+	// (see AbstractSeedableProbGen), or an unseeded draw for generators that do not, mixed with the seed
+	// variable and the agent id, so that the streams differ between problems, copies and agents
+	private long agentSeed() {
+		Object algSeed = this.getProblem().getMetadata().get("alg-seed");
+		long base = algSeed instanceof Long ? (Long) algSeed : seed != 0 ? 0 : new Random().nextLong();
+		return ((base ^ (seed * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L) + this.getId();
+	}
+
+	// early termination: the latest round in which some agent changed its value is flooded through the
+	// neighbors (only when it advances), and the agent stops once no change is known for patience rounds
+	private void noteChange(int changeRound) {
+		if (changeRound > lastChangeRound) {
+			lastChangeRound = changeRound;
+			changeToForward = true;
+		}
+	}
+
+	private void endRound() {
+		if (changeToForward) {
+			sendToNeighbors("lastChange", getId(), lastChangeRound);
+			changeToForward = false;
+		}
+		round++;
+		if (anytimeTracker != null)
+			anytimeTracker.endRound();
+		// the root of the tree decides the round in which all the agents stop: an agent that stopped alone would
+		// send no more Neg or Win messages, and its neighbors would commit without its budget check (or, with
+		// announceWinner, never again).  With anytime, they also all report the values of the same best round
+		if (patience > 0 && round - lastChangeRound > patience)
+			anytimeTracker.requestStop();
+		if (anytimeTracker != null && anytimeTracker.isStopRound())
+			finishRun();
+	}
+
+	// the agent's share of the cost of the round for the anytime snapshot: its submitted value with the neighbors'
+	// values, over its own constraints, each counted at its smaller endpoint so that the shares sum to the cost
+	// of the assignment
+	private long snapshotCost() {
+		Assignment pair = new Assignment(getId(), this.getSubmitedCurrentAssignment());
+		long cost = 0;
+		for (int neighbor : neighbors) {
+			if (neighbor < getId() || !localView.isAssigned(neighbor))
+				continue;
+			pair.assign(neighbor, localView.getAssignment(neighbor));
+			cost += pair.calcCost(problem);
+			pair.unassign(neighbor);
+		}
+		return cost;
+	}
+
+	// with anytime, the assignment reported at the end is the best one the tree found rather than the last one
+	private void finishRun() {
+		if (anytimeTracker != null && anytimeTracker.getBestValue() != -1)
+			submitCurrentAssignment(anytimeTracker.getBestValue());
+		finish();
+	}
+
+	// with announceWinner, every neighbor sends a Win only to its locally best requester, so an agent lost the
+	// round unless all of its neighbors named it; this is exactly when it would have received no Neg
+	private boolean lostRound() {
+		if (announceWinner)
+			return wins < neighbors.size();
+		return gotNegative;
+	}
+
+	private void reject(int neighborId) {
+		if (announceWinner)
+			rejected.add(neighborId);
+		else
+			sendTo("Neg", neighborId, getId());
+	}
+
+	// proposes a value for a round: the round tags the request, so that the neighbors rank it only in that round
+	private void chooseNewValue(int requestRound) {
+		myCurrentRequest = findImprovingAssignment(this.localView);
 		canImprove = true;
 
 		if ((myCurrentRequest == -1) || (myCurrentRequest == this.getSubmitedCurrentAssignment())) {
 			canImprove = false;
 			bestCostReduction = 0;
 		} else {
-			bestCostReduction = localView.calcCost(this.getProblem())
-					- localView.calcAddedCost(this.getId(), myCurrentRequest, this.getProblem());
-			send("Request", getId(), this.getSubmitedCurrentAssignment(), myCurrentRequest, bestCostReduction)
-					.toNeighbores();
+			bestCostReduction = localView.calcCost(problem)
+					- localView.calcAddedCost(this.getId(), myCurrentRequest, problem);
+			sendToNeighbors("Request", getId(), this.getSubmitedCurrentAssignment(), myCurrentRequest, bestCostReduction,
+					requestRound);
 		}
 	}
 
@@ -137,64 +371,51 @@ public class AGC extends SimpleAgent {
 		double budget_t = getCurrentBudget(localView);
 
 		for (int neighbor : requests.keySet()) {
+			// pipelined, a request was computed before the commits of the previous round arrived; if this agent
+			// committed, the requester's view changed and it withdraws the request, so it must not outrank (and
+			// reject) the others.  A request of another round is stale too
+			if (requests.get(neighbor).round != round || (pipelined && committedLastRound))
+				continue;
 			int neighborId = requests.get(neighbor).neighborId;
 			int neighborOriginalAssignment = requests.get(neighbor).currentAssignment;
 			int neighborRequest = requests.get(neighbor).request;
 			double neighborCostReduction = requests.get(neighbor).gain;
-			double requestCost = this.getConstraintCost(neighborId, neighborRequest, this.getId(),
+			double requestCost = problem.getConstraintCost(neighborId, neighborRequest, this.getId(),
 					this.getSubmitedCurrentAssignment())
-					- this.getConstraintCost(neighborId, neighborOriginalAssignment, this.getId(),
+					- problem.getConstraintCost(neighborId, neighborOriginalAssignment, this.getId(),
 							this.getSubmitedCurrentAssignment());
 
 			if ((neighborCostReduction > bestCostReduction && budget_t >= requestCost)
 					|| (neighborCostReduction == bestCostReduction && neighborId > bestCostReductionAgentId
 							&& budget_t >= requestCost)) {
 				if (bestCostReductionAgentId != this.getId()) {
-					send("Neg", getId()).to(bestCostReductionAgentId);
+					reject(bestCostReductionAgentId);
 				}
 				bestCostReduction = neighborCostReduction;
 				bestCostReductionAgentId = neighborId;
 			} else {
-				send("Neg", getId()).to(neighborId);
+				reject(neighborId);
 			}
 		}
+		if (announceWinner) {
+			// a neighbor may have sent more than one request (e.g., in the first round); it wins only if
+			// none of them was rejected
+			if (bestCostReductionAgentId != this.getId() && !rejected.contains(bestCostReductionAgentId))
+				sendTo("Win", bestCostReductionAgentId, getId());
+			rejected.clear();
+		}
 	}
 
 	private double getCurrentBudget(Assignment localView) {
-		double budget_t;
-		double cost_St = this.costOf(localView);
-		double lambda_t = lambda_0;
-		double mu_t = this.costOf(baselineLocalView);
-
-		if (agentType == 1)
-			mu_t = this.costOf(baselineLocalView);
-		if (agentType == 2)
-			mu_t = mu_t_minus_1 + Math.min(0, (cost_St - c_St_minus_1) / (1 + lambda_t));
-		if (agentType == 3)
-			mu_t = mu_t_minus_1 + Math.min(0, Phi_t_minus_1 * (cost_St - c_St_minus_1) / (1 + lambda_t));
-
-		budget_t = mu_t * (1 + lambda_t) - cost_St;
+		double budget_t = AgentKernels.getCurrentBudget(problem, localView, baselineLocalView, agentType, lambda_0,
+				mu_t_minus_1, c_St_minus_1, Phi_t_minus_1);
+		if (jfr)
+			AgentEvents.budgetEvaluated("AGC", getId(), getSystemTimeInTicks(), budget_t);
 		return budget_t;
 	}
 
-	private Object findImprovingAssignment(Assignment localView) {
-		Object improvingAssignment = -1;
-		HashSet<Object> currentDomain = new HashSet<Object>(getDomain());
-
-		while (currentDomain.isEmpty() == false) {
-			Object[] domainValues = currentDomain.toArray();
-			int rndVal = new Random().nextInt(domainValues.length);
-			Object val = domainValues[rndVal];
-			currentDomain.remove(val);
-
-			double valAssignmentCost = localView.calcCost(this.getProblem())
-					- localView.calcAddedCost(this.getId(), (Integer) val, this.getProblem());
-			if (valAssignmentCost > 0) {
-				improvingAssignment = val;
-				break;
-			}
-		}
-		return improvingAssignment;
+	private int findImprovingAssignment(Assignment localView) {
+		return AgentKernels.findImprovingAssignment(problem, localView, this.getId(), domainOrder, randNum);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package ext.sim.agents;
+
+import java.util.Hashtable;
+import java.util.Random;
+import bgu.dcr.az.api.prob.ImmutableProblem;
+import bgu.dcr.az.api.tools.Assignment;
+
+/**
+ * The cost work of the phase methods of {@link AGC}, {@link SM_AGC} and {@link GOODS_MGM}, with the agent's state
+ * passed in explicitly instead of read from Agent Zero, so that it can run outside an execution. The agents call
+ * these methods, and so does <code>ext.sim.bench.AgentKernelBench</code>, which is why they are public.
+ */
+public final class AgentKernels {
+
+	private AgentKernels() {
+	}
+
+	/**
+	 * The budget of a local view: <code>mu * (1 + lambda_0) - cost</code>, where <code>mu</code> is the cost of the
+	 * baseline view for <code>agentType</code> 1, and is updated from the previous round's values for 2 and 3.
+	 */
+	public static double getCurrentBudget(ImmutableProblem problem, Assignment localView,
+			Assignment baselineLocalView, int agentType, double lambda_0, double mu_t_minus_1, double c_St_minus_1,
+			double Phi_t_minus_1) {
+		double cost_St = localView.calcCost(problem);
+		double lambda_t = lambda_0;
+		double mu_t = baselineLocalView.calcCost(problem);
+
+		if (agentType == 2)
+			mu_t = mu_t_minus_1 + Math.min(0, (cost_St - c_St_minus_1) / (1 + lambda_t));
+		if (agentType == 3)
+			mu_t = mu_t_minus_1 + Math.min(0, Phi_t_minus_1 * (cost_St - c_St_minus_1) / (1 + lambda_t));
+
+		return mu_t * (1 + lambda_t) - cost_St;
+	}
+
+	/**
+	 * The first value of <code>self</code> that lowers the cost of the local view, visiting the domain in a random
+	 * order (a partial Fisher-Yates shuffle of <code>domainOrder</code>), or -1 if there is none.
+	 */
+	public static int findImprovingAssignment(ImmutableProblem problem, Assignment localView, int self,
+			int[] domainOrder, Random randNum) {
+		double currentCost = localView.calcCost(problem);
+
+		for (int k = 0; k < domainOrder.length; k++) {
+			int rndVal = k + randNum.nextInt(domainOrder.length - k);
+			int val = domainOrder[rndVal];
+			domainOrder[rndVal] = domainOrder[k];
+			domainOrder[k] = val;
+
+			double valAssignmentCost = currentCost - localView.calcAddedCost(self, val, problem);
+			if (valAssignmentCost > 0)
+				return val;
+		}
+		return -1;
+	}
+
+	/**
+	 * The values a neighbor may not request: those whose cost delta against <code>self</code>'s value is above the
+	 * budget.
+	 */
+	public static boolean[] findtaboosforNeighbor(ImmutableProblem problem, int self, int myValue, int domainSize,
+			int neighborId, int neighborOriginalAssignment, double budget) {
+		boolean[] neighborTaboos = new boolean[domainSize];
+
+		for (int neighborPssibleRequest = 0; neighborPssibleRequest < domainSize; neighborPssibleRequest++) {
+			double requestCost = problem.getConstraintCost(neighborId, neighborPssibleRequest, self, myValue)
+					- problem.getConstraintCost(neighborId, neighborOriginalAssignment, self, myValue);
+			neighborTaboos[neighborPssibleRequest] = budget < requestCost;
+		}
+		return neighborTaboos;
+	}
+
+	/**
+	 * The goods of every neighbor: the values in its NG-store that bring the cost of the real state view below the
+	 * budget. The nogoods stored for a neighbor are checked in one pass: its value in the view is changed in place
+	 * for every nogood value and restored afterwards, instead of copying the view for every value.
+	 */
+	public static Hashtable<Integer, boolean[]> checkNgStoreAndFindGoods(ImmutableProblem problem,
+			Assignment realStateLocalView, Iterable<Integer> neighbors, Iterable<Integer> domain,
+			Hashtable<Integer, Hashtable<Integer, Boolean>> NG_store, double budget) {
+		Hashtable<Integer, boolean[]> goods = new Hashtable<Integer, boolean[]>();
+		for (int neighborId : neighbors) {
+			Hashtable<Integer, Boolean> neighborNG_store = NG_store.get(neighborId);
+			boolean neighborAssigned = realStateLocalView.isAssigned(neighborId);
+			int neighborValue = neighborAssigned ? realStateLocalView.getAssignment(neighborId) : -1;
+			boolean[] neighborGoods = null;
+			for (int val : domain) {
+				if (neighborNG_store.get(val) == true) {
+					realStateLocalView.assign(neighborId, val);
+					double possibleCost = realStateLocalView.calcCost(problem);
+					if (possibleCost < budget) {
+						if (neighborGoods == null) {
+							neighborGoods = new boolean[problem.getDomainSize(neighborId)];
+						}
+						neighborGoods[val] = true;
+						neighborNG_store.put(neighborId, false);
+					}
+				}
+			}
+			if (neighborAssigned)
+				realStateLocalView.assign(neighborId, neighborValue);
+			else
+				realStateLocalView.unassign(neighborId);
+			if (neighborGoods != null)
+				goods.put(neighborId, neighborGoods);
+		}
+		return goods;
+	}
+
+	/**
+	 * The nogoods of the local view: random neighbors are unassigned from it, and their values recorded as nogoods
+	 * and in the NG-store, until its cost is at most the threshold. Every round unassigns another neighbor, so the
+	 * number of rounds is the number of neighbors in the result.
+	 */
+	@SuppressWarnings("deprecation")
+	public static Hashtable<Integer, boolean[]> findNoGoods(ImmutableProblem problem, Assignment localView,
+			int self, double maximalCostThreshold, Random randNum,
+			Hashtable<Integer, Hashtable<Integer, Boolean>> NG_store) {
+		double currentCost = localView.calcCost(problem);
+		Hashtable<Integer, boolean[]> noGoods = new Hashtable<Integer, boolean[]>();
+		while (currentCost > maximalCostThreshold) {
+			Assignment onlyNeighborsLv = localView.copy();
+			onlyNeighborsLv.unassign(self);
+
+			Object assignedNeighbors[] = onlyNeighborsLv.assignedVariables().toArray();
+			int rnd = randNum.nextInt(assignedNeighbors.length);
+			Object rndNeighbor = assignedNeighbors[rnd];
+			int rndNeighborVal = localView.getAssignment((Integer) rndNeighbor);
+			localView.unassign((Integer) rndNeighbor);
+			boolean[] neighborNoGoods = noGoods.get(rndNeighbor);
+			if (neighborNoGoods == null) {
+				neighborNoGoods = new boolean[problem.getDomainSize((Integer) rndNeighbor)];
+				noGoods.put((Integer) rndNeighbor, neighborNoGoods);
+			}
+			neighborNoGoods[rndNeighborVal] = true;
+
+			// updateing NG-Store
+			Hashtable<Integer, Boolean> neighborNG_store = NG_store.get(rndNeighbor);
+			neighborNG_store.put(rndNeighborVal, true);
+			NG_store.put((Integer) rndNeighbor, neighborNG_store);
+
+			currentCost = localView.calcCost(problem);
+		}
+		return noGoods;
+	}
+}
@@ -1,14 +1,20 @@
 package ext.sim.agents;
 
 import java.util.Hashtable;
+import java.util.Map;
 import bgu.dcr.az.api.agt.SimpleAgent;
 import bgu.dcr.az.api.ano.Algorithm;
 import bgu.dcr.az.api.ano.Variable;
 import bgu.dcr.az.api.ano.WhenReceived;
+import bgu.dcr.az.api.prob.ImmutableProblem;
 import bgu.dcr.az.api.tools.Assignment;
+import ext.sim.modules.CostFunctionProblem;
+import utils.AgentEvents;
+import utils.AnytimeTracker;
 import utils.Request;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 @Algorithm(name = "GOODS_MGM", useIdleDetector = false)
 public class GOODS_MGM extends SimpleAgent {
@@ -19,6 +25,14 @@ public class GOODS_MGM extends SimpleAgent {
 	double lambda_0 = 1;
 	@Variable(name = "agentType", defaultValue = "1", description = "Represents agent's behavioral traits and willingness to cooperate")
 	int agentType = 1;
+	@Variable(name = "patience", defaultValue = "0", description = "Rounds without any value change after which the run stops before the end of the timeFrame (0 = never stop early)")
+	int patience = 0;
+	@Variable(name = "seed", defaultValue = "0", description = "Seed of the agents' own random choices, mixed with the problem's alg-seed, for running differently seeded copies of the algorithm as a portfolio (0 = the initial value is drawn by the framework)")
+	long seed = 0;
+	@Variable(name = "anytime", defaultValue = "false", description = "Track the best assignment of the run over a BFS tree of the agents and report it at the end instead of the last one")
+	boolean anytime = false;
+	@Variable(name = "jfr", defaultValue = "false", description = "Emit Java Flight Recorder events for the agents' phases, budget evaluations and inner loops")
+	boolean jfr = false;
 
 	Hashtable<Integer, Request> valueAssignments = new Hashtable<Integer, Request>();
 	Hashtable<Integer, Request> requests = new Hashtable<Integer, Request>();
@@ -40,15 +54,30 @@ public class GOODS_MGM extends SimpleAgent {
 	double mu_t_minus_1;
 	double c_St_minus_1;
 	double Phi_t_minus_1;
+	int round;
+	int lastChangeRound;
+	boolean changeToForward;
 
 	Hashtable<Integer, Hashtable<Integer, Boolean>> NG_store = new Hashtable<Integer, Hashtable<Integer, Boolean>>();
-	Hashtable<Integer, Integer> elim = new Hashtable<Integer, Integer>();
+	// the number of nogoods received for every value of my domain
+	int[] elim;
 	Hashtable<Integer, Double> neighborsLrs = new Hashtable<Integer, Double>();
 	boolean gotBaseLine;
 	boolean sendBaseLine;
+	// per-agent state so that a round touches nothing shared with other agents
+	Random randNum = new Random();
+	// the problem the costs and the neighbors are read from (see CostFunctionProblem)
+	ImmutableProblem problem;
+	Set<Integer> neighbors;
+	// the distributed anytime mechanism, with anytime, and the coordinated early stop, with patience
+	AnytimeTracker anytimeTracker;
+	// the messages sent in the current phase, with jfr
+	int sends;
 
 	@Override
 	public void start() {
+		problem = CostFunctionProblem.of(this.getProblem());
+		neighbors = problem.getNeighbors(getId());
 		initializeVariables();
 	}
 
@@ -67,13 +96,29 @@ public class GOODS_MGM extends SimpleAgent {
 		sendBaseLine = false;
 		myLr = 0;
 		canImprove = false;
+		round = 0;
+		lastChangeRound = 0;
+		changeToForward = false;
+		randNum.setSeed(agentSeed());
 
-		myCurrentRequest = random(this.getDomain());
+		myCurrentRequest = seed == 0 ? random(this.getDomain()) : randNum.nextInt(this.getDomainSize());
 		submitCurrentAssignment(myCurrentRequest);
 		baselineLocalView = new Assignment(getId(), myCurrentRequest);
 		localView = new Assignment(getId(), myCurrentRequest);
 		realStateLocalView = new Assignment(getId(), myCurrentRequest);
-		send("valueAssignment", this.getId(), myCurrentRequest, myCurrentRequest).toNeighbores();
+		sendToNeighbors("valueAssignment", this.getId(), myCurrentRequest, myCurrentRequest);
+		if (anytime || patience > 0) {
+			anytimeTracker = new AnytimeTracker(getId(), neighbors, timeFrame * nPhases, anytime, new AnytimeTracker.Host() {
+				public void send(String name, int to, Object... args) {
+					sendTo(name, to, args);
+				}
+
+				public long getSystemTimeInTicks() {
+					return GOODS_MGM.this.getSystemTimeInTicks();
+				}
+			});
+			anytimeTracker.start();
+		}
 	}
 
 	// handling messages functions 	
@@ -82,18 +127,33 @@ public class GOODS_MGM extends SimpleAgent {
 		valueAssignments.put(valueAssignments.size(), new Request(i, vi, ri, -1, getSystemTimeInTicks()));
 		localView.assign(i, ri);
 		realStateLocalView.assign(i, ri);
+		noteChange(round - 1);
 	}
 
-	@WhenReceived("good")
-	public void handleGoodMessage(int i, int vi) {
-		int currentNoGoodsForVal = elim.get(vi);
-		elim.put(vi, currentNoGoodsForVal - 1);
+	/**
+	 * Handles the goods and nogoods neighbor <code>i</code> sent this round, as masks over my domain of the
+	 * values to restore and to eliminate (<code>null</code> when empty).
+	 */
+	@WhenReceived("elimDelta")
+	public void handleElimDelta(int i, boolean[] goods, boolean[] noGoods) {
+		if (goods != null)
+			handleGoodMessage(i, goods);
+		if (noGoods != null)
+			handleNoGoodMessage(i, noGoods);
+	}
+
+	private void handleGoodMessage(int i, boolean[] values) {
+		for (int vi = 0; vi < values.length; vi++) {
+			if (values[vi])
+				elim[vi]--;
+		}
 	}
 
-	@WhenReceived("noGood")
-	public void handleNoGoodMessage(int i, int vi) {
-		int currentNoGoodsForVal = elim.get(vi);
-		elim.put(vi, currentNoGoodsForVal + 1);
+	private void handleNoGoodMessage(int i, boolean[] values) {
+		for (int vi = 0; vi < values.length; vi++) {
+			if (values[vi])
+				elim[vi]++;
+		}
 	}
 
 	@WhenReceived("baseLine")
@@ -101,6 +161,7 @@ public class GOODS_MGM extends SimpleAgent {
 		this.localView.assign(i, vi);
 		this.realStateLocalView.assign(i, vi);
 		gotBaseLine = true;
+		noteChange(round);
 	}
 
 	@WhenReceived("Lr")
@@ -109,20 +170,75 @@ public class GOODS_MGM extends SimpleAgent {
 
 	}
 
+	@WhenReceived("lastChange")
+	public void handleLastChange(int i, int changeRound) {
+		noteChange(changeRound);
+	}
+
+	@WhenReceived("anytimeTree")
+	public void handleAnytimeTree(int i, int root, int depth, int parent) {
+		anytimeTracker.anytimeTree(i, root, depth, parent);
+	}
+
+	@WhenReceived("anytimeEcho")
+	public void handleAnytimeEcho(int i, int root, int height) {
+		anytimeTracker.anytimeEcho(i, root, height);
+	}
+
+	@WhenReceived("anytimeCost")
+	public void handleAnytimeCost(int i, int round, long cost) {
+		anytimeTracker.anytimeCost(i, round, cost);
+	}
+
+	@WhenReceived("anytimeBest")
+	public void handleAnytimeBest(int round, int firstRound, int height) {
+		anytimeTracker.anytimeBest(round, firstRound, height);
+	}
+
+	@WhenReceived("anytimeStop")
+	public void handleAnytimeStop(int stopRound) {
+		anytimeTracker.anytimeStop(stopRound);
+	}
+
 	// algorithm functions
-	@SuppressWarnings("deprecation")
 	@Override
-	
 	public void onMailBoxEmpty() {
+		if (!jfr) {
+			runPhase();
+			return;
+		}
+		AgentEvents.Phase event = new AgentEvents.Phase();
+		event.begin();
+		int phaseRun = phase;
+		sends = 0;
+		runPhase();
+		if (event.shouldCommit()) {
+			event.algorithm = "GOODS_MGM";
+			event.agent = getId();
+			event.phase = phaseRun;
+			event.tick = getSystemTimeInTicks();
+			event.sends = sends;
+			event.commit();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void runPhase() {
+		if (anytimeTracker != null && anytimeTracker.isSnapshotDue())
+			anytimeTracker.record(this.getSubmitedCurrentAssignment(), snapshotCost());
 		if (getSystemTimeInTicks() <= timeFrame * nPhases) { // should continue
 			switch (phase) {
 
 			case 1:
-				checkNgStoreAndSendGoodsMessages();
+				// the goods and the nogoods of this round are sent together, one message per neighbor; nothing
+				// received in phase 2 changes the local view, so the nogoods are the same as if found then
+				Hashtable<Integer, boolean[]> goods = checkNgStoreAndFindGoods();
+				Hashtable<Integer, boolean[]> noGoods = checkChangesAndFindNoGoods();
+				sendElimDeltas(goods, noGoods);
 				phase = 2;
 				return;
 			case 2:
-				checkChangesAndSendNoGoods();
+				// the neighbors' goods and nogoods are received
 				phase = 3;
 				return;
 			case 3:
@@ -141,8 +257,8 @@ public class GOODS_MGM extends SimpleAgent {
 				phase = 5;
 				return;
 			case 5:
-				mu_t_minus_1 = (getCurrentBudget(this.localView) + this.costOf(localView)) / (1 + lambda_0);
-				c_St_minus_1 = this.costOf(localView);
+				mu_t_minus_1 = (getCurrentBudget(this.localView) + localView.calcCost(problem)) / (1 + lambda_0);
+				c_St_minus_1 = localView.calcCost(problem);
 				Phi_t_minus_1 = 0;
 
 				if (canImprove && isTheBestLrIsMine()) {
@@ -151,7 +267,8 @@ public class GOODS_MGM extends SimpleAgent {
 					submitCurrentAssignment(myCurrentRequest);
 					localView.assign(this.getId(), myCurrentRequest);
 					realStateLocalView.assign(this.getId(), myCurrentRequest);
-					send("valueAssignment", getId(), currentAssignment, myCurrentRequest).toNeighbores();
+					sendToNeighbors("valueAssignment", getId(), currentAssignment, myCurrentRequest);
+					noteChange(round);
 				}
 				if (gotBaseLine) {
 					int currentAssignment = this.getSubmitedCurrentAssignment();
@@ -159,20 +276,101 @@ public class GOODS_MGM extends SimpleAgent {
 					submitCurrentAssignment(baseLineAssignment);
 					localView.assign(this.getId(), baseLineAssignment);
 					realStateLocalView.assign(this.getId(), baseLineAssignment);
-					send("valueAssignment", getId(), currentAssignment, baseLineAssignment).toNeighbores();
+					sendToNeighbors("valueAssignment", getId(), currentAssignment, baseLineAssignment);
+					noteChange(round);
 				}
 				reInitializeVariables();
+				endRound();
 				return;
 			}
 		} else {
-			finish();
+			finishRun();
 		}
 	}
 
 	// utility functions
+	// sends a message to one agent; with jfr, it is counted for the phase event
+	private void sendTo(String msg, int to, Object... args) {
+		if (jfr)
+			sends++;
+		send(msg, args).to(to);
+	}
+
+	// sends a message to all the neighbors; Agent Zero does not know the neighbors of a problem whose costs are
+	// read through a CostFunctionProblem, so the message is then sent to each of them.  With jfr, every
+	// recipient is counted for the phase event
+	private void sendToNeighbors(String msg, Object... args) {
+		if (jfr)
+			sends += neighbors.size();
+		if (!(problem instanceof CostFunctionProblem)) {
+			send(msg, args).toNeighbores();
+			return;
+		}
+		for (int neighbor : neighbors)
+			send(msg, args).to(neighbor);
+	}
+
+	// the seed of the agent's own random choices: the algorithm seed the generator published for the problem
+	// (see AbstractSeedableProbGen), or an unseeded draw for generators that do not, mixed with the seed
+	// variable and the agent id, so that the streams differ between problems, copies and agents
+	private long agentSeed() {
+		Object algSeed = this.getProblem().getMetadata().get("alg-seed");
+		long base = algSeed instanceof Long ? (Long) algSeed : seed != 0 ? 0 : new Random().nextLong();
+		return ((base ^ (seed * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L) + this.getId();
+	}
+
+	// early termination: the latest round in which some agent changed its value is flooded through the
+	// neighbors (only when it advances), and the agent stops once no change is known for patience rounds
+	private void noteChange(int changeRound) {
+		if (changeRound > lastChangeRound) {
+			lastChangeRound = changeRound;
+			changeToForward = true;
+		}
+	}
+
+	private void endRound() {
+		if (changeToForward) {
+			sendToNeighbors("lastChange", getId(), lastChangeRound);
+			changeToForward = false;
+		}
+		round++;
+		if (anytimeTracker != null)
+			anytimeTracker.endRound();
+		// the root of the tree decides the round in which all the agents stop: an agent that stopped alone would
+		// send no more Neg or Win messages, and its neighbors would commit without its budget check (or, with
+		// announceWinner, never again).  With anytime, they also all report the values of the same best round
+		if (patience > 0 && round - lastChangeRound > patience)
+			anytimeTracker.requestStop();
+		if (anytimeTracker != null && anytimeTracker.isStopRound())
+			finishRun();
+	}
+
+	// with anytime, the assignment reported at the end is the best one the tree found rather than the last one
+	private void finishRun() {
+		if (anytimeTracker != null && anytimeTracker.getBestValue() != -1)
+			submitCurrentAssignment(anytimeTracker.getBestValue());
+		finish();
+	}
+
+	// the agent's share of the cost of the round for the anytime snapshot: its submitted value (the real state
+	// view does not follow its own return to the baseline) with the neighbors' real values, over its own
+	// constraints, each counted at its smaller endpoint so that the shares sum to the cost of the assignment
+	private long snapshotCost() {
+		Assignment pair = new Assignment(getId(), this.getSubmitedCurrentAssignment());
+		long cost = 0;
+		for (int neighbor : neighbors) {
+			if (neighbor < getId() || !realStateLocalView.isAssigned(neighbor))
+				continue;
+			pair.assign(neighbor, realStateLocalView.getAssignment(neighbor));
+			cost += pair.calcCost(problem);
+			pair.unassign(neighbor);
+		}
+		return cost;
+	}
+
 	private void initializeNG_Store() {
 
-		for (int neighborId : this.getNeighbors()) {
+		for (int neighborId : neighbors) {
 			Hashtable<Integer, Boolean> neighborNG_store = new Hashtable<Integer, Boolean>();
 			for (int val = 0; val < this.getDomainSize(); val++) {
 				neighborNG_store.put(val, false);
@@ -182,8 +380,7 @@ public class GOODS_MGM extends SimpleAgent {
 	}
 
 	private void initializeElim() {
-		for (int val : this.getDomain())
-			elim.put(val, 0);
+		elim = new int[this.getDomainSize()];
 	}
 
 	@SuppressWarnings("deprecation")
@@ -202,7 +399,7 @@ public class GOODS_MGM extends SimpleAgent {
 
 	private boolean isDomainEmpty() {
 		for (int val : this.getDomain()) {
-			if (elim.get(val) == 0) {
+			if (elim[val] == 0) {
 				return false;
 			}
 		}
@@ -214,38 +411,42 @@ public class GOODS_MGM extends SimpleAgent {
 		int blAssignment = baselineLocalView.getAssignment(this.getId());
 		this.submitCurrentAssignment(blAssignment);
 		this.localView = this.baselineLocalView.copy();
-		send("baseLine", this.getId(), blAssignment).toNeighbores();
+		sendToNeighbors("baseLine", this.getId(), blAssignment);
 		sendBaseLine = true;
 		initializeElim();
+		noteChange(round);
 	}
 
 	@SuppressWarnings("deprecation")
-	private void checkChangesAndSendNoGoods() {
+	private Hashtable<Integer, boolean[]> checkChangesAndFindNoGoods() {
 		prevLocalViewBeforeNogoods = new Assignment();
 		prevLocalViewBeforeNogoods = this.localView.copy();
 
-		double maximalCostThreshold = prevRealStateLocalView.calcCost(this.getProblem())
+		double maximalCostThreshold = prevRealStateLocalView.calcCost(problem)
 				+ this.getCurrentBudget(prevRealStateLocalView);
-		double currentCost = this.localView.calcCost(this.getProblem());
-		while (currentCost > maximalCostThreshold) {
-			Assignment onlyNeighborsLv = new Assignment();
-			onlyNeighborsLv = this.localView.copy();
-			onlyNeighborsLv.unassign(this.getId());
-
-			Object assignedNeighbors[] = onlyNeighborsLv.assignedVariables().toArray();
-			int rnd = new Random().nextInt(assignedNeighbors.length);
-			Object rndNeighbor = assignedNeighbors[rnd];
-			int rndNeighborVal = this.localView.getAssignment((Integer) rndNeighbor);
-			this.localView.unassign((Integer) rndNeighbor);
-			send("noGood", this.getId(), rndNeighborVal).to((Integer) rndNeighbor);
-
-			// updateing NG-Store
-			Hashtable<Integer, Boolean> neighborNG_store = new Hashtable<Integer, Boolean>();
-			neighborNG_store = NG_store.get(rndNeighbor);
-			neighborNG_store.put(rndNeighborVal, true);
-			NG_store.put((Integer) rndNeighbor, neighborNG_store);
+		AgentEvents.NogoodLoop event = null;
+		if (jfr) {
+			event = new AgentEvents.NogoodLoop();
+			event.begin();
+		}
+		Hashtable<Integer, boolean[]> noGoods = AgentKernels.findNoGoods(problem, this.localView, this.getId(),
+				maximalCostThreshold, randNum, NG_store);
+		if (event != null && event.shouldCommit()) {
+			event.agent = getId();
+			event.tick = getSystemTimeInTicks();
+			event.iterations = noGoods.size();
+			event.commit();
+		}
+		return noGoods;
+	}
 
-			currentCost = this.localView.calcCost(this.getProblem());
+	private void sendElimDeltas(Hashtable<Integer, boolean[]> goods, Hashtable<Integer, boolean[]> noGoods) {
+		for (Map.Entry<Integer, boolean[]> neighborGoods : goods.entrySet()) {
+			int neighborId = neighborGoods.getKey();
+			sendTo("elimDelta", neighborId, this.getId(), neighborGoods.getValue(), noGoods.remove(neighborId));
+		}
+		for (Map.Entry<Integer, boolean[]> neighborNoGoods : noGoods.entrySet()) {
+			sendTo("elimDelta", neighborNoGoods.getKey(), this.getId(), null, neighborNoGoods.getValue());
 		}
 	}
 
@@ -265,14 +466,14 @@ public class GOODS_MGM extends SimpleAgent {
 	}
 
 	private void findBestAssignmnetAndSendToNeighbors() {
-		myCurrentRequest = (int) (realStateLocalView.findMinimalCostValue(getId(), getCurrentDomain(), getProblem()));
+		myCurrentRequest = (int) (realStateLocalView.findMinimalCostValue(getId(), getCurrentDomain(), problem));
 
-		myLr = realStateLocalView.calcCost(this.getProblem())
-				- realStateLocalView.calcAddedCost(this.getId(), myCurrentRequest, this.getProblem());
+		myLr = realStateLocalView.calcCost(problem)
+				- realStateLocalView.calcAddedCost(this.getId(), myCurrentRequest, problem);
 
 		if (myCurrentRequest != this.getSubmitedCurrentAssignment()) {
 			canImprove = true;
-			send("Lr", this.getId(), myLr).toNeighbores();
+			sendToNeighbors("Lr", this.getId(), myLr);
 		}
 	}
 
@@ -281,7 +482,7 @@ public class GOODS_MGM extends SimpleAgent {
 		HashSet currentDomain = new HashSet(getDomain());
 
 		for (int val = 0; val < domainSize; val++) {
-			if (elim.get(val) > 0) {
+			if (elim[val] > 0) {
 				currentDomain.remove(val);
 			}
 		}
@@ -289,47 +490,17 @@ public class GOODS_MGM extends SimpleAgent {
 		return currentDomain;
 	}
 
-	@SuppressWarnings("deprecation")
-	private void checkNgStoreAndSendGoodsMessages() {
-		for (int neighborId : this.getNeighbors()) {
-			for (int val : this.getDomain()) {
-				if (NG_store.get(neighborId).get(val) == true) {
-					Assignment possibleLocalView = new Assignment();
-					possibleLocalView = this.realStateLocalView.copy();
-					possibleLocalView.assign(neighborId, val);
-					double possibleCost = possibleLocalView.calcCost(this.getProblem());
-					if (possibleCost < this.getCurrentBudget(this.prevRealStateLocalView)) {
-
-						send("good", this.getId(), val).to(neighborId);
-
-						Hashtable<Integer, Boolean> neighborNG_store = new Hashtable<Integer, Boolean>();
-						neighborNG_store = NG_store.get(neighborId);
-						neighborNG_store.put(neighborId, false);
-						NG_store.put((Integer) neighborId, neighborNG_store);
-
-					}
-				}
-
-			}
-
-		}
-
+	private Hashtable<Integer, boolean[]> checkNgStoreAndFindGoods() {
+		double budget = this.getCurrentBudget(this.prevRealStateLocalView);
+		return AgentKernels.checkNgStoreAndFindGoods(problem, realStateLocalView, neighbors, this.getDomain(),
+				NG_store, budget);
 	}
 
 	private double getCurrentBudget(Assignment localView) {
-		double budget_t;
-		double cost_St = this.costOf(localView);
-		double lambda_t = lambda_0;
-		double mu_t = this.costOf(baselineLocalView);
-
-		if (agentType == 1)
-			mu_t = this.costOf(baselineLocalView);
-		if (agentType == 2)
-			mu_t = mu_t_minus_1 + Math.min(0, (cost_St - c_St_minus_1) / (1 + lambda_t));
-		if (agentType == 3)
-			mu_t = mu_t_minus_1 + Math.min(0, Phi_t_minus_1 * (cost_St - c_St_minus_1) / (1 + lambda_t));
-
-		budget_t = mu_t * (1 + lambda_t) - cost_St;
+		double budget_t = AgentKernels.getCurrentBudget(problem, localView, baselineLocalView, agentType, lambda_0,
+				mu_t_minus_1, c_St_minus_1, Phi_t_minus_1);
+		if (jfr)
+			AgentEvents.budgetEvaluated("GOODS_MGM", getId(), getSystemTimeInTicks(), budget_t);
 		return budget_t;
 	}
 
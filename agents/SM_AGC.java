@@ -4,12 +4,18 @@ import bgu.dcr.az.api.agt.SimpleAgent;
 import bgu.dcr.az.api.ano.Algorithm;
 import bgu.dcr.az.api.ano.Variable;
 import bgu.dcr.az.api.ano.WhenReceived;
+import bgu.dcr.az.api.prob.ImmutableProblem;
 import bgu.dcr.az.api.tools.Assignment;
 
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+
+import ext.sim.modules.CostFunctionProblem;
+import utils.AgentEvents;
+import utils.AnytimeTracker;
 
 @Algorithm(name = "SM_AGC", useIdleDetector = false)
 public class SM_AGC extends SimpleAgent {
@@ -20,9 +26,22 @@ public class SM_AGC extends SimpleAgent {
 	double lambda_0 = 1;
 	@Variable(name = "agentType", defaultValue = "1", description = "Represents agent's behavioral traits and willingness to cooperate")
 	int agentType = 1;
+	@Variable(name = "patience", defaultValue = "0", description = "Rounds without any value change after which the run stops before the end of the timeFrame (0 = never stop early)")
+	int patience = 0;
+	@Variable(name = "seed", defaultValue = "0", description = "Seed of the agents' own random choices, mixed with the problem's alg-seed, for running differently seeded copies of the algorithm as a portfolio (0 = the initial value is drawn by the framework)")
+	long seed = 0;
+	@Variable(name = "pipelined", defaultValue = "false", description = "Send the next round's taboos and preferences in the same tick as this round's commit (3 ticks per round instead of 4)")
+	boolean pipelined = false;
+	@Variable(name = "announceWinner", defaultValue = "false", description = "Send one Win message to the locally best requester instead of a Neg message to every other requester")
+	boolean announceWinner = false;
+	@Variable(name = "anytime", defaultValue = "false", description = "Track the best assignment of the run over a BFS tree of the agents and report it at the end instead of the last one")
+	boolean anytime = false;
+	@Variable(name = "jfr", defaultValue = "false", description = "Emit Java Flight Recorder events for the agents' phases, budget evaluations and inner loops")
+	boolean jfr = false;
 
 	boolean canImprove;
 	boolean gotNegative;
+	int wins;
 	int nPhases;
 	int phase;
 	int myCurrentRequest;
@@ -30,6 +49,9 @@ public class SM_AGC extends SimpleAgent {
 	double mu_t_minus_1;
 	double c_St_minus_1;
 	double Phi_t_minus_1;
+	int round;
+	int lastChangeRound;
+	boolean changeToForward;
 	Assignment baselineLocalView;
 	Assignment localView;
 
@@ -42,7 +64,22 @@ public class SM_AGC extends SimpleAgent {
 	int taboo = 1;
 
 	Random randNum = new Random();
+	int[] domainOrder;
+	// the problem the costs and the neighbors are read from (see CostFunctionProblem)
+	ImmutableProblem problem;
+	Set<Integer> neighbors;
+	// the distributed anytime mechanism, with anytime, and the coordinated early stop, with patience
+	AnytimeTracker anytimeTracker;
+	// the messages sent in the current phase, with jfr
+	int sends;
 	Hashtable<Integer, Boolean> taboos;
+	// the taboos last sent to every neighbor, with the inputs they were computed from
+	Hashtable<Integer, boolean[]> sentTaboos;
+	Hashtable<Integer, Integer> sentTaboosNeighborValue;
+	double sentTaboosBudget;
+	int sentTaboosMyValue;
+	// the taboos last received from every neighbor (a neighbor only sends them when they change)
+	Hashtable<Integer, boolean[]> receivedTaboos;
 	Hashtable<Integer, Double> neighborsRequestsCostReduction;
 	Hashtable<Integer, Integer> neighborsRequests;
 	double[] cumulativeVotes;
@@ -50,6 +87,8 @@ public class SM_AGC extends SimpleAgent {
 
 	@Override
 	public void start() {
+		problem = CostFunctionProblem.of(this.getProblem());
+		neighbors = problem.getNeighbors(getId());
 		initializeVariables();
 	}
 
@@ -59,43 +98,81 @@ public class SM_AGC extends SimpleAgent {
 		localView = null;
 		baselineLocalView = null;
 		gotNegative = false;
+		wins = 0;
 		Phi_t_minus_1 = 1;
 		myBestCostResuction = 0;
 		canImprove = false;
-		randNum.setSeed(this.getId());
+		round = 0;
+		lastChangeRound = 0;
+		changeToForward = false;
+		randNum.setSeed(agentSeed());
+		domainOrder = new int[this.getDomainSize()];
+		for (int val = 0; val < this.getDomainSize(); val++)
+			domainOrder[val] = val;
 		taboos = new Hashtable<Integer, Boolean>();
+		sentTaboos = new Hashtable<Integer, boolean[]>();
+		sentTaboosNeighborValue = new Hashtable<Integer, Integer>();
+		sentTaboosBudget = Double.NaN;
+		sentTaboosMyValue = -1;
+		receivedTaboos = new Hashtable<Integer, boolean[]>();
 		cumulativeVotes = new double[this.getDomainSize()];
 		selfCumulativeVotes = new double[this.getDomainSize()];
 		neighborsRequestsCostReduction = new Hashtable<Integer, Double>();
 		neighborsRequests = new Hashtable<Integer, Integer>();
 		for (int val = 0; val < this.getDomainSize(); val++)
 			taboos.put(val, false);
-		myCurrentRequest = random(this.getDomain());
+		myCurrentRequest = seed == 0 ? random(this.getDomain()) : randNum.nextInt(this.getDomainSize());
 		localView = new Assignment(getId(), myCurrentRequest);
 		baselineLocalView = new Assignment(getId(), myCurrentRequest);
 		this.submitCurrentAssignment(myCurrentRequest);
-		send("valueAssignment", getId(), myCurrentRequest, myCurrentRequest).toNeighbores();
+		sendToNeighbors("valueAssignment", getId(), myCurrentRequest, myCurrentRequest);
+		if (anytime || patience > 0) {
+			anytimeTracker = new AnytimeTracker(getId(), neighbors, timeFrame * nPhases, anytime, new AnytimeTracker.Host() {
+				public void send(String name, int to, Object... args) {
+					sendTo(name, to, args);
+				}
+
+				public long getSystemTimeInTicks() {
+					return SM_AGC.this.getSystemTimeInTicks();
+				}
+			});
+			anytimeTracker.start();
+		}
 	}
 
 	// handling messages functions 	
 	@WhenReceived("valueAssignment")
 	public void handleValueAssignment(int i, int vi, int ri) {
 		localView.assign(i, ri);
+		noteChange(round - 1);
+	}
+
+	/**
+	 * Handles the single envelope a neighbor sends in phase 0: its taboos for my values (<code>null</code> when
+	 * they did not change since it last sent them) and, when it has one, its change request
+	 * (<code>changeRequest</code> is -1 otherwise).  A neighbor with neither sends no envelope.
+	 */
+	@WhenReceived("preferences")
+	public void handlePreferences(int neighborId, boolean[] taboosList, int changeRequest, double costReduction) {
+		if (taboosList != null)
+			receivedTaboos.put(neighborId, taboosList);
+		if (changeRequest != -1)
+			handleChangeRequest(neighborId, changeRequest, costReduction);
 	}
 
-	@WhenReceived("taboos")
-	public void handletaboos(int neighborId, boolean[] taboosList) {
+	private void applyReceivedTaboos() {
 		if (taboo == 1) {
-			for (int val = 0; val < this.getDomainSize(); val++) {
-				if (taboosList[val] == true) {
-					taboos.put(val, true);
+			for (boolean[] taboosList : receivedTaboos.values()) {
+				for (int val = 0; val < this.getDomainSize(); val++) {
+					if (taboosList[val] == true) {
+						taboos.put(val, true);
+					}
 				}
 			}
 		}
 	}
 
-	@WhenReceived("changeRequest")
-	public void handleChangeRequest(int neighborId, int changeRequest, double costReduction) {
+	private void handleChangeRequest(int neighborId, int changeRequest, double costReduction) {
 		if (vote.equals("cost"))
 			cumulativeVotes[changeRequest] = cumulativeVotes[changeRequest] + costReduction;
 		if (vote.equals("binary")) {
@@ -117,10 +194,67 @@ public class SM_AGC extends SimpleAgent {
 			gotNegative = true;
 		}
 
+	@WhenReceived("Win")
+	public void handleWin(int i) {
+		wins++;
+	}
+
+	@WhenReceived("lastChange")
+	public void handleLastChange(int i, int changeRound) {
+		noteChange(changeRound);
+	}
+
+	@WhenReceived("anytimeTree")
+	public void handleAnytimeTree(int i, int root, int depth, int parent) {
+		anytimeTracker.anytimeTree(i, root, depth, parent);
+	}
+
+	@WhenReceived("anytimeEcho")
+	public void handleAnytimeEcho(int i, int root, int height) {
+		anytimeTracker.anytimeEcho(i, root, height);
+	}
+
+	@WhenReceived("anytimeCost")
+	public void handleAnytimeCost(int i, int round, long cost) {
+		anytimeTracker.anytimeCost(i, round, cost);
+	}
+
+	@WhenReceived("anytimeBest")
+	public void handleAnytimeBest(int round, int firstRound, int height) {
+		anytimeTracker.anytimeBest(round, firstRound, height);
+	}
+
+	@WhenReceived("anytimeStop")
+	public void handleAnytimeStop(int stopRound) {
+		anytimeTracker.anytimeStop(stopRound);
+	}
+
 	// algorithm functions
-	@SuppressWarnings("deprecation")
 	@Override
 	public void onMailBoxEmpty() {
+		if (!jfr) {
+			runPhase();
+			return;
+		}
+		AgentEvents.Phase event = new AgentEvents.Phase();
+		event.begin();
+		int phaseRun = phase;
+		sends = 0;
+		runPhase();
+		if (event.shouldCommit()) {
+			event.algorithm = "SM_AGC";
+			event.agent = getId();
+			event.phase = phaseRun;
+			event.tick = getSystemTimeInTicks();
+			event.sends = sends;
+			event.commit();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void runPhase() {
+		if (anytimeTracker != null && anytimeTracker.isSnapshotDue())
+			anytimeTracker.record(this.getSubmitedCurrentAssignment(), snapshotCost());
 
 		if (getSystemTimeInTicks() <= timeFrame * nPhases) {
 
@@ -128,16 +262,14 @@ public class SM_AGC extends SimpleAgent {
 			case 0:
 				if (getSystemTimeInTicks() == 1) {
 					baselineLocalView = localView.copy();
-					mu_t_minus_1 = this.costOf(baselineLocalView);
-					c_St_minus_1 = this.costOf(baselineLocalView);
+					mu_t_minus_1 = baselineLocalView.calcCost(problem);
+					c_St_minus_1 = baselineLocalView.calcCost(problem);
 				}
-				sendTaboosToAgents(this.localView);
-			case 1:
-
-				sendPreferencesToNeighbors(this.localView, new HashSet<Object>(getDomain()));
+				sendTaboosAndPreferencesToNeighbors(this.localView);
 				phase = 2;
 				return;
 			case 2:
+				applyReceivedTaboos();
 				calculateSelfCostsInvolvedInNeighborsPreferences(this.localView);
 				sendSocialImprovingAssignment();
 				phase = 3;
@@ -147,66 +279,195 @@ public class SM_AGC extends SimpleAgent {
 				phase = 4;
 				return;
 			case 4:
-				mu_t_minus_1 = (getCurrentBudget(this.localView) + this.costOf(localView)) / (1 + lambda_0);
-				c_St_minus_1 = this.costOf(localView);
+				mu_t_minus_1 = (getCurrentBudget(this.localView) + localView.calcCost(problem)) / (1 + lambda_0);
+				c_St_minus_1 = localView.calcCost(problem);
 				Phi_t_minus_1 = 0;
 				
-				if (isThebestSocialGainIsMine() && canImprove && !gotNegative) {
+				if (isThebestSocialGainIsMine() && canImprove && !lostRound()) {
 					Phi_t_minus_1 = 1;
 					submitCurrentAssignmentAndUpdateNeighbors();
+					noteChange(round);
 				}
 				reInitializeVariables();
-				phase = 0;
+				if (pipelined) {
+					// phase 0 of the next round; its taboos are checked again in phase 3
+					sendTaboosAndPreferencesToNeighbors(this.localView);
+					phase = 2;
+				} else {
+					phase = 0;
+				}
+				endRound();
 			}
 
 		} else {
 
-			finish();
+			finishRun();
 		}
 	}
 
 	// utility functions
+	// sends a message to one agent; with jfr, it is counted for the phase event
+	private void sendTo(String msg, int to, Object... args) {
+		if (jfr)
+			sends++;
+		send(msg, args).to(to);
+	}
+
+	// sends a message to all the neighbors; Agent Zero does not know the neighbors of a problem whose costs are
+	// read through a CostFunctionProblem, so the message is then sent to each of them.  With jfr, every
+	// recipient is counted for the phase event
+	private void sendToNeighbors(String msg, Object... args) {
+		if (jfr)
+			sends += neighbors.size();
+		if (!(problem instanceof CostFunctionProblem)) {
+			send(msg, args).toNeighbores();
+			return;
+		}
+		for (int neighbor : neighbors)
+			send(msg, args).to(neighbor);
+	}
+
+	// the seed of the agent's own random choices: the algorithm seed the generator published for the problem
+	// (see AbstractSeedableProbGen), or an unseeded draw for generators that do not, mixed with the seed
+	// variable and the agent id, so that the streams differ between problems, copies and agents
+	private long agentSeed() {
+		Object algSeed = this.getProblem().getMetadata().get("alg-seed");
+		long base = algSeed instanceof Long ? (Long) algSeed : seed != 0 ? 0 : new Random().nextLong();
+		return ((base ^ (seed * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L) + this.getId();
+	}
+
+	// early termination: the latest round in which some agent changed its value is flooded through the
+	// neighbors (only when it advances), and the agent stops once no change is known for patience rounds
+	private void noteChange(int changeRound) {
+		if (changeRound > lastChangeRound) {
+			lastChangeRound = changeRound;
+			changeToForward = true;
+		}
+	}
+
+	private void endRound() {
+		if (changeToForward) {
+			sendToNeighbors("lastChange", getId(), lastChangeRound);
+			changeToForward = false;
+		}
+		round++;
+		if (anytimeTracker != null)
+			anytimeTracker.endRound();
+		// the root of the tree decides the round in which all the agents stop: an agent that stopped alone would
+		// send no more Neg or Win messages, and its neighbors would commit without its budget check (or, with
+		// announceWinner, never again).  With anytime, they also all report the values of the same best round
+		if (patience > 0 && round - lastChangeRound > patience)
+			anytimeTracker.requestStop();
+		if (anytimeTracker != null && anytimeTracker.isStopRound())
+			finishRun();
+	}
+
+	// the agent's share of the cost of the round for the anytime snapshot: its submitted value with the neighbors'
+	// values, over its own constraints, each counted at its smaller endpoint so that the shares sum to the cost
+	// of the assignment
+	private long snapshotCost() {
+		Assignment pair = new Assignment(getId(), this.getSubmitedCurrentAssignment());
+		long cost = 0;
+		for (int neighbor : neighbors) {
+			if (neighbor < getId() || !localView.isAssigned(neighbor))
+				continue;
+			pair.assign(neighbor, localView.getAssignment(neighbor));
+			cost += pair.calcCost(problem);
+			pair.unassign(neighbor);
+		}
+		return cost;
+	}
+
+	// with anytime, the assignment reported at the end is the best one the tree found rather than the last one
+	private void finishRun() {
+		if (anytimeTracker != null && anytimeTracker.getBestValue() != -1)
+			submitCurrentAssignment(anytimeTracker.getBestValue());
+		finish();
+	}
+
 	private void submitCurrentAssignmentAndUpdateNeighbors() {
 
 		int myCurrentAssignment = this.localView.getAssignment(this.getId());
 		submitCurrentAssignment(myCurrentRequest);
 		localView.assign(this.getId(), myCurrentRequest);
 
-		send("valueAssignment", getId(), myCurrentAssignment, myCurrentRequest).toNeighbores();
+		sendToNeighbors("valueAssignment", getId(), myCurrentAssignment, myCurrentRequest);
 	}
 
-	private void sendPreferencesToNeighbors(Assignment lv, HashSet<Object> domain) {
+	/**
+	 * Sends every neighbor one envelope holding its taboos and my change request for it, instead of a taboos
+	 * message and a change request message.  A neighbor's taboos depend only on its value, my value and my
+	 * budget, so they are recomputed only when one of these changed, and sent only when they differ from the
+	 * ones it already has.
+	 */
+	private void sendTaboosAndPreferencesToNeighbors(Assignment lv) {
 		int myCurrentAssignment = this.getSubmitedCurrentAssignment();
+		double budget = getCurrentBudget(lv);
+		boolean inputsChanged = budget != sentTaboosBudget || myCurrentAssignment != sentTaboosMyValue;
+		sentTaboosBudget = budget;
+		sentTaboosMyValue = myCurrentAssignment;
+		AgentEvents.TabooComputation event = null;
+		if (jfr) {
+			event = new AgentEvents.TabooComputation();
+			event.begin();
+		}
+		int recomputed = 0;
 		for (Map.Entry<Integer, Integer> neighborAssignment : lv.getAssignments()) {
 			int neighborId = neighborAssignment.getKey();
 
 			if (neighborId != this.getId()) {
-				double currentCost = getConstraintCost(this.getId(), myCurrentAssignment, neighborId,
+				boolean[] neighborTaboos = null;
+				if (taboo == 1) {
+					int neighborValue = neighborAssignment.getValue();
+					Integer sentNeighborValue = sentTaboosNeighborValue.get(neighborId);
+					if (inputsChanged || sentNeighborValue == null || sentNeighborValue != neighborValue) {
+						boolean[] newTaboos = findtaboosforNeighbor(neighborId, neighborValue, budget);
+						recomputed++;
+						sentTaboosNeighborValue.put(neighborId, neighborValue);
+						if (!Arrays.equals(newTaboos, sentTaboos.get(neighborId))) {
+							sentTaboos.put(neighborId, newTaboos);
+							neighborTaboos = newTaboos;
+						}
+					}
+				}
+				int changeRequest = -1;
+				double changeCostReduction = 0;
+				double currentCost = problem.getConstraintCost(this.getId(), myCurrentAssignment, neighborId,
 						lv.getAssignment(neighborId));
-				HashSet currentDomain = new HashSet(domain);
 
-				while (currentDomain.isEmpty() == false) {
-					Object[] domainValues = currentDomain.toArray();
-					int rndVal = new Random().nextInt(domainValues.length);
-					Object val = domainValues[rndVal];
-					double requestCost = getConstraintCost(this.getId(), myCurrentAssignment, neighborId, (int) val);
+				// visit the domain in a random order (a partial Fisher-Yates shuffle of domainOrder)
+				for (int k = 0; k < domainOrder.length; k++) {
+					int rndVal = k + randNum.nextInt(domainOrder.length - k);
+					int val = domainOrder[rndVal];
+					domainOrder[rndVal] = domainOrder[k];
+					domainOrder[k] = val;
+					double requestCost = problem.getConstraintCost(this.getId(), myCurrentAssignment, neighborId, val);
 					double costReduction = currentCost - requestCost;
 
 					if (costReduction > 0) {
-						send("changeRequest", getId(), val, costReduction).to(neighborId);
+						changeRequest = val;
+						changeCostReduction = costReduction;
 						break;
 					}
-					currentDomain.remove(val);
 				}
+				if (neighborTaboos != null || changeRequest != -1)
+					sendTo("preferences", neighborId, getId(), neighborTaboos, changeRequest, changeCostReduction);
 			}
 		}
+		if (event != null && event.shouldCommit()) {
+			event.agent = getId();
+			event.tick = getSystemTimeInTicks();
+			event.recomputed = recomputed;
+			event.commit();
+		}
 	}
 
 	private void calculateSelfCostsInvolvedInNeighborsPreferences(Assignment lv) {
+		double currentCost = localView.calcCost(problem);
 		for (int request = 0; request < cumulativeVotes.length; request++) {
 			if ((taboo == 1 && vote.equals("none")) || cumulativeVotes[request] > 0) {
-				double valSelfCostReduction = localView.calcCost(this.getProblem())
-						- localView.calcAddedCost(this.getId(), (int) request, this.getProblem());
+				double valSelfCostReduction = currentCost
+						- localView.calcAddedCost(this.getId(), (int) request, problem);
 				selfCumulativeVotes[request] = valSelfCostReduction;
 			}
 		}
@@ -253,7 +514,7 @@ public class SM_AGC extends SimpleAgent {
 		sampledVal = randomlySampleByFrequency(freqTable);
 
 		if (((sampledVal != -1) && freqTable[sampledVal] > 0)) {
-			send("costReduction", getId(), sampledVal, freqTable[sampledVal]).toNeighbores();
+			sendToNeighbors("costReduction", getId(), sampledVal, freqTable[sampledVal]);
 			canImprove = true;
 			myBestCostResuction = freqTable[sampledVal];
 			myCurrentRequest = sampledVal;
@@ -279,58 +540,16 @@ public class SM_AGC extends SimpleAgent {
 	}
 
 	private double getCurrentBudget(Assignment localView) {
-		double budget_t;
-		double cost_St = this.costOf(localView);
-
-		double lambda_t = lambda_0;
-		double mu_t = this.costOf(baselineLocalView);
-		if (agentType == 1)
-			mu_t = this.costOf(baselineLocalView);
-		if (agentType == 2) {
-			mu_t = mu_t_minus_1 + Math.min(0, (cost_St - c_St_minus_1) / (1 + lambda_t));
-			//if (this.getId() == 0 && this.agentType == 2) System.out.println(this.getSystemTimeInTicks()+" : "+mu_t);		
-	}
-		if (agentType == 3)
-			mu_t = mu_t_minus_1 + Math.min(0, Phi_t_minus_1 * (cost_St - c_St_minus_1) / (1 + lambda_t));
-
-		budget_t = mu_t * (1 + lambda_t) - cost_St;
-		
+		double budget_t = AgentKernels.getCurrentBudget(problem, localView, baselineLocalView, agentType, lambda_0,
+				mu_t_minus_1, c_St_minus_1, Phi_t_minus_1);
+		if (jfr)
+			AgentEvents.budgetEvaluated("SM_AGC", getId(), getSystemTimeInTicks(), budget_t);
 		return budget_t;
 	}
 
-	private boolean[] findtaboosforNeighbor(int neighborId, Assignment lv) {
-		boolean allNegative = true;
-		boolean[] neighborTaboos = new boolean[this.getDomainSize()];
-
-		for (int neighborPssibleRequest = 0; neighborPssibleRequest < this.getDomainSize(); neighborPssibleRequest++) {
-			int neighborOriginalAssignment = lv.getAssignment(neighborId);
-
-			double requestCost = this.getConstraintCost(neighborId, neighborPssibleRequest, this.getId(),
-					this.getSubmitedCurrentAssignment())
-					- this.getConstraintCost(neighborId, neighborOriginalAssignment, this.getId(),
-							this.getSubmitedCurrentAssignment());
-			if (getCurrentBudget(lv) < requestCost) {
-				neighborTaboos[neighborPssibleRequest] = true;
-				allNegative = false;
-			} else {
-				neighborTaboos[neighborPssibleRequest] = false;
-
-			}
-
-		}
-
-		return neighborTaboos;
-	}
-
-	private void sendTaboosToAgents(Assignment lv) {
-		for (Map.Entry<Integer, Integer> neighborAssignment : lv.getAssignments()) {
-			int neighborId = neighborAssignment.getKey();
-			if (neighborId != this.getId()) {
-				boolean[] neighborTaboos = new boolean[this.getDomainSize()];
-				neighborTaboos = findtaboosforNeighbor(neighborId, lv);
-				send("taboos", getId(), neighborTaboos).to(neighborId);
-			}
-		}
+	private boolean[] findtaboosforNeighbor(int neighborId, int neighborOriginalAssignment, double budget) {
+		return AgentKernels.findtaboosforNeighbor(problem, this.getId(), this.getSubmitedCurrentAssignment(),
+				this.getDomainSize(), neighborId, neighborOriginalAssignment, budget);
 	}
 
 	private void collectSocialGainsAndSendNegs() {
@@ -345,13 +564,15 @@ public class SM_AGC extends SimpleAgent {
 			double neighborCr = neighborsRequestsCostReduction.get(neighborId);
 			int neighborRequest = neighborsRequests.get(neighborId);
 			int neighborOriginalAssignment = this.localView.getAssignment(neighborId);
-			double requestCost = this.getConstraintCost(neighborId, neighborRequest, this.getId(),
+			double requestCost = problem.getConstraintCost(neighborId, neighborRequest, this.getId(),
 					this.getSubmitedCurrentAssignment())
-					- this.getConstraintCost(neighborId, neighborOriginalAssignment, this.getId(),
+					- problem.getConstraintCost(neighborId, neighborOriginalAssignment, this.getId(),
 							this.getSubmitedCurrentAssignment());
 
-			if (taboo == 0 && (getCurrentBudget(localView) < requestCost)) {
-				send("Neg", getId()).to(neighborId);
+			// pipelined: the taboos were computed before the previous round's commits arrived, so the budget
+			// is checked again against the current view
+			if ((taboo == 0 || pipelined) && (getCurrentBudget(localView) < requestCost)) {
+				reject(neighborId);
 				continue;
 			}
 			if (neighborCr >= bestCostReduction) {
@@ -359,19 +580,34 @@ public class SM_AGC extends SimpleAgent {
 				if (((neighborCr == bestCostReduction) && (neighborId > bestAgentCostReduction))
 						|| (neighborCr > bestCostReduction)) {
 					if ((bestAgentCostReduction != this.getId()) && (bestAgentCostReduction != -1)) {
-						send("Neg", getId()).to(bestAgentCostReduction);
+						reject(bestAgentCostReduction);
 					}
 					bestCostReduction = neighborCr;
 					bestAgentCostReduction = neighborId;
 
 				} else {
-					send("Neg", getId()).to(neighborId);
+					reject(neighborId);
 				}
 
 			} else {
-				send("Neg", getId()).to(neighborId);
+				reject(neighborId);
 			}
 		}
+		if (announceWinner && (bestAgentCostReduction != this.getId()) && (bestAgentCostReduction != -1))
+			sendTo("Win", bestAgentCostReduction, getId());
+	}
+
+	// with announceWinner, every neighbor sends a Win only to its locally best requester, so an agent lost the
+	// round unless all of its neighbors named it; this is exactly when it would have received no Neg
+	private boolean lostRound() {
+		if (announceWinner)
+			return wins < neighbors.size();
+		return gotNegative;
+	}
+
+	private void reject(int neighborId) {
+		if (!announceWinner)
+			sendTo("Neg", neighborId, getId());
 	}
 
 	private void reInitializeVariables() {
@@ -384,6 +620,7 @@ public class SM_AGC extends SimpleAgent {
 		for (int val = 0; val < this.getDomainSize(); val++)
 			taboos.put(val, false);
 		gotNegative = false;
+		wins = 0;
 	}
 
 }
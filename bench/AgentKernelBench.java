@@ -0,0 +1,180 @@
+package ext.sim.bench;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import bgu.dcr.az.api.prob.ImmutableProblem;
+import bgu.dcr.az.api.tools.Assignment;
+import ext.sim.agents.AgentKernels;
+import ext.sim.modules.CostFunctionProblem;
+
+/**
+ * Benchmarks the phase methods of <code>AGC</code>, <code>SM_AGC</code> and <code>GOODS_MGM</code> that do the
+ * cost work, on instances from every generator in <code>ext.sim.modules</code>.  The agents read their state from
+ * Agent Zero (<code>getId()</code>, <code>getDomainSize()</code>, <code>getSubmitedCurrentAssignment()</code>,
+ * ...), which is only set when an execution starts the agent, so every kernel here calls the {@link AgentKernels}
+ * method the agent delegates to, with the state of one of a sample of agents on a random assignment:
+ * <ul>
+ * <li><code>getCurrentBudget</code> (all three agents, <code>agentType</code> 1): the cost of the view and of the
+ * baseline view, and the budget <code>mu * (1 + lambda_0) - cost</code></li>
+ * <li><code>findImprovingAssignment</code>: <code>calcCost</code> minus <code>calcAddedCost</code> over the
+ * domain in a random order, up to the first improving value</li>
+ * <li><code>SM_AGC.findtaboosforNeighbor</code>: for every neighbor, the budget and the taboo of every value by its
+ * cost delta <code>getConstraintCost(neighbor, v, self, myValue) - getConstraintCost(neighbor, orig, self,
+ * myValue)</code></li>
+ * <li><code>GOODS_MGM.checkNgStoreAndFindGoods</code>: every neighbor value in the NG-store (here all of them)
+ * assigned in the view, costed against the budget and restored</li>
+ * <li><code>GOODS_MGM.checkChangesAndFindNoGoods</code>: random neighbors unassigned from a copy of the view, and
+ * the view costed again, until its cost is below a threshold (here half its cost)</li>
+ * </ul>
+ * The costs are read through {@link CostFunctionProblem#of(ImmutableProblem)}, as the agents do, so every storage
+ * of the generators can be measured; {@link MicroBench} reports the time and the heap allocated per call.
+ * <br>
+ * Usage: <code>java -cp agentzero.jar:classes ext.sim.bench.AgentKernelBench [n [d [density [seed]]]]</code>
+ */
+public class AgentKernelBench {
+
+	/**
+	 * The initial cooperation parameter of the agents' default configuration.
+	 */
+	static final double LAMBDA_0 = 1;
+
+	/**
+	 * Local views of a sample of agents on a random full assignment, and on a random baseline assignment.
+	 */
+	static final class Views {
+		final int [] agents;
+		final int [] values;
+		final Assignment [] localViews;
+		final Assignment [] baselineViews;
+		final int [][] domainOrders;
+		final List<List<Integer>> domains = new ArrayList<List<Integer>>();
+		final List<Hashtable<Integer, Hashtable<Integer, Boolean>>> ngStores =
+				new ArrayList<Hashtable<Integer, Hashtable<Integer, Boolean>>>();
+
+		Views(ImmutableProblem p, long seed, int sampleSize) {
+			Random rand = new Random(seed);
+			int n = p.getNumberOfVariables();
+			values = new int[n];
+			int [] baseline = new int[n];
+			for (int i = 0; i < n; i++) {
+				values[i] = rand.nextInt(p.getDomainSize(i));
+				baseline[i] = rand.nextInt(p.getDomainSize(i));
+			}
+			agents = new int[Math.min(n, sampleSize)];
+			localViews = new Assignment[agents.length];
+			baselineViews = new Assignment[agents.length];
+			domainOrders = new int[agents.length][];
+			for (int k = 0; k < agents.length; k++) {
+				int agent = rand.nextInt(n);
+				agents[k] = agent;
+				Assignment lv = new Assignment(agent, values[agent]);
+				Assignment bv = new Assignment(agent, baseline[agent]);
+				for (int neighbor : p.getNeighbors(agent)) {
+					lv.assign(neighbor, values[neighbor]);
+					bv.assign(neighbor, baseline[neighbor]);
+				}
+				localViews[k] = lv;
+				baselineViews[k] = bv;
+				domainOrders[k] = new int[p.getDomainSize(agent)];
+				List<Integer> domain = new ArrayList<Integer>();
+				for (int val = 0; val < domainOrders[k].length; val++) {
+					domainOrders[k][val] = val;
+					domain.add(val);
+				}
+				domains.add(domain);
+				// every value of every neighbor is a stored nogood, the most the goods check can cost
+				Hashtable<Integer, Hashtable<Integer, Boolean>> ngStore = new Hashtable<Integer, Hashtable<Integer, Boolean>>();
+				for (int neighbor : p.getNeighbors(agent)) {
+					Hashtable<Integer, Boolean> neighborNgStore = new Hashtable<Integer, Boolean>();
+					for (int val = 0; val < domain.size(); val++) {
+						neighborNgStore.put(val, true);
+					}
+					ngStore.put(neighbor, neighborNgStore);
+				}
+				ngStores.add(ngStore);
+			}
+		}
+	}
+
+	public static void main(String [] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int d = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+		MicroBench bench = new MicroBench(3, 5, 200);
+		System.out.println("n=" + n + " d=" + d + " density=" + density + " seed=" + seed);
+		for (String kind : BenchInstances.KINDS) {
+			final ImmutableProblem p = CostFunctionProblem.of(BenchInstances.generate(kind, n, d, density, seed));
+			final Views views = new Views(p, seed, 64);
+			final int size = views.agents.length;
+			final Random randNum = new Random(seed);
+
+			bench.run(kind + ":getCurrentBudget", new MicroBench.Op() {
+				int k;
+				public long run() {
+					int idx = k++ % size;
+					return (long) getCurrentBudget(p, views.localViews[idx], views.baselineViews[idx]);
+				}
+			});
+			bench.run(kind + ":findImprovingAssignment", new MicroBench.Op() {
+				int k;
+				public long run() {
+					int idx = k++ % size;
+					return AgentKernels.findImprovingAssignment(p, views.localViews[idx], views.agents[idx],
+							views.domainOrders[idx], randNum);
+				}
+			});
+			bench.run(kind + ":findtaboosforNeighbor", new MicroBench.Op() {
+				int k;
+				public long run() {
+					int idx = k++ % size;
+					int agent = views.agents[idx];
+					Assignment lv = views.localViews[idx];
+					double budget = getCurrentBudget(p, lv, views.baselineViews[idx]);
+					long taboos = 0;
+					for (Map.Entry<Integer, Integer> neighborAssignment : lv.getAssignments()) {
+						int neighborId = neighborAssignment.getKey();
+						if (neighborId != agent) {
+							boolean [] neighborTaboos = AgentKernels.findtaboosforNeighbor(p, agent, views.values[agent],
+									p.getDomainSize(agent), neighborId, neighborAssignment.getValue(), budget);
+							for (boolean taboo : neighborTaboos) {
+								taboos += taboo ? 1 : 0;
+							}
+						}
+					}
+					return taboos;
+				}
+			});
+			bench.run(kind + ":checkNgStoreAndFindGoods", new MicroBench.Op() {
+				int k;
+				public long run() {
+					int idx = k++ % size;
+					int agent = views.agents[idx];
+					double budget = getCurrentBudget(p, views.localViews[idx], views.baselineViews[idx]);
+					return AgentKernels.checkNgStoreAndFindGoods(p, views.localViews[idx], p.getNeighbors(agent),
+							views.domains.get(idx), views.ngStores.get(idx), budget).size();
+				}
+			});
+			bench.run(kind + ":checkChangesAndFindNoGoods", new MicroBench.Op() {
+				int k;
+				public long run() {
+					int idx = k++ % size;
+					Assignment localView = views.localViews[idx].copy();
+					return AgentKernels.findNoGoods(p, localView, views.agents[idx], localView.calcCost(p) / 2,
+							randNum, views.ngStores.get(idx)).size();
+				}
+			});
+		}
+	}
+
+	/**
+	 * The agents' budget in their default configuration (<code>agentType</code> 1).
+	 */
+	static double getCurrentBudget(ImmutableProblem p, Assignment localView, Assignment baselineLocalView) {
+		return AgentKernels.getCurrentBudget(p, localView, baselineLocalView, 1, LAMBDA_0, 0, 0, 0);
+	}
+}
@@ -0,0 +1,102 @@
+package ext.sim.bench;
+
+import java.util.Random;
+
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.exen.pgen.AbstractProblemGenerator;
+import ext.sim.modules.AsGraphColoringConnectedNoiseGen;
+import ext.sim.modules.GraphColoringConnectedNoiseGen;
+import ext.sim.modules.KRegularGraphsADCOPGen;
+import ext.sim.modules.MeetingSchedulingDCOPGen;
+import ext.sim.modules.MeetingSchedulingDCOPNoiseGen;
+import ext.sim.modules.RandomUniformADCOPGen;
+import ext.sim.modules.ScaleFreeADCOPGen;
+
+/**
+ * Creates benchmark instances from every problem generator in <code>ext.sim.modules</code>, using a common
+ * (n, d, density) parameterization.  The density is the expected fraction of the other variables a variable is
+ * constrained with, and is mapped to each generator's own parameters:
+ * <ul>
+ * <li>random uniform and graph coloring: <code>p1 = density</code></li>
+ * <li>k-regular: <code>r = density * (n - 1)</code></li>
+ * <li>scale free: <code>growth = density * (n - 1) / 2</code> (the Barabasi-Albert mean degree is twice the
+ * growth), with a core just larger than the growth</li>
+ * <li>meeting scheduling: n agents and n meetings over d time slots; the density is ignored because the
+ * constraints follow from shared participants</li>
+ * </ul>
+ */
+public final class BenchInstances {
+
+	/**
+	 * The registered names of the generators that can be benchmarked.
+	 */
+	public static final String [] KINDS = { "random_uniform_adcop", "k_regular_graphs_adcop", "adcop-scale-free",
+			"graphcoloring-connected-noise", "as-graphcoloring-connected-noise", "dcop-meeting-scheduling",
+			"dcop-meeting-scheduling-noise" };
+
+	private BenchInstances() {
+	}
+
+	/**
+	 * Creates and configures a generator.
+	 * @param kind The registered generator name, one of {@link #KINDS}.
+	 * @param n The number of variables.
+	 * @param d The domain size.
+	 * @param density The constraint density.
+	 * @return The configured generator.
+	 * @throws IllegalArgumentException If the generator is unknown.
+	 */
+	public static AbstractProblemGenerator newGenerator(String kind, int n, int d, double density)
+			throws IllegalArgumentException {
+		AbstractProblemGenerator gen;
+		int degree = Math.max(1, Math.min(n - 1, (int) Math.round(density * (n - 1))));
+		if (kind.equals("random_uniform_adcop")) {
+			gen = new RandomUniformADCOPGen();
+			MicroBench.configure(gen, "p1", Double.toString(density));
+		} else if (kind.equals("k_regular_graphs_adcop")) {
+			gen = new KRegularGraphsADCOPGen();
+			MicroBench.configure(gen, "r", Integer.toString(degree));
+		} else if (kind.equals("adcop-scale-free")) {
+			gen = new ScaleFreeADCOPGen();
+			int growth = Math.max(1, degree / 2);
+			MicroBench.configure(gen, "growth", Integer.toString(growth));
+			MicroBench.configure(gen, "core-size", Integer.toString(Math.min(n - 1, Math.max(growth + 1, 5))));
+		} else if (kind.equals("graphcoloring-connected-noise")) {
+			gen = new GraphColoringConnectedNoiseGen();
+			MicroBench.configure(gen, "p1", Double.toString(density));
+		} else if (kind.equals("as-graphcoloring-connected-noise")) {
+			gen = new AsGraphColoringConnectedNoiseGen();
+			MicroBench.configure(gen, "p1", Double.toString(density));
+		} else if (kind.equals("dcop-meeting-scheduling")) {
+			gen = new MeetingSchedulingDCOPGen();
+		} else if (kind.equals("dcop-meeting-scheduling-noise")) {
+			gen = new MeetingSchedulingDCOPNoiseGen();
+		} else {
+			throw new IllegalArgumentException("Unknown generator " + kind);
+		}
+		if (kind.startsWith("dcop-meeting-scheduling")) {
+			MicroBench.configure(gen, "n", Integer.toString(n));
+			MicroBench.configure(gen, "m", Integer.toString(n));
+			MicroBench.configure(gen, "t", Integer.toString(d));
+		} else {
+			MicroBench.configure(gen, "n", Integer.toString(n));
+			MicroBench.configure(gen, "d", Integer.toString(d));
+		}
+		return gen;
+	}
+
+	/**
+	 * Generates a benchmark instance.
+	 * @param kind The registered generator name, one of {@link #KINDS}.
+	 * @param n The number of variables.
+	 * @param d The domain size.
+	 * @param density The constraint density.
+	 * @param seed The seed for the generator's pseudorandom number generator.
+	 * @return The generated problem.
+	 */
+	public static Problem generate(String kind, int n, int d, double density, long seed) {
+		Problem p = new Problem();
+		newGenerator(kind, n, d, density).generate(p, new Random(seed));
+		return p;
+	}
+}
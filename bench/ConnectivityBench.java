@@ -0,0 +1,102 @@
+package ext.sim.bench;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+
+import bgu.dcr.az.api.Agt0DSL;
+import bgu.dcr.az.api.ds.ImmutableSet;
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.api.prob.ProblemType;
+import ext.sim.modules.ConstraintGraph;
+import ext.sim.modules.GeneralDCOPGen;
+
+/**
+ * Checks and times the connectivity repair of {@link GeneralDCOPGen} (<code>addConnectivity</code>) on sparse
+ * random graphs of growing size.  The graphs have a mean degree below 1, so they start as many small components
+ * that all have to be linked.  For every n it checks, by a BFS over the generated constraint graph, that the
+ * problem is connected, and reports the repair time per variable and edge, which should stay flat as n grows.
+ * <br>
+ * It exits with status 1 if some problem is not connected, so it can be run as a regression check.
+ * <br>
+ * Usage: <code>java -cp agentzero.jar:classes ext.sim.bench.ConnectivityBench [n,n,... [mean-degree [seed]]]</code>
+ */
+public class ConnectivityBench {
+
+	/**
+	 * A generator that only builds the constraint graph, and times its connectivity repair.
+	 */
+	static final class ConnectedGraphGen extends GeneralDCOPGen {
+		long repairNanos;
+		int edgesBefore;
+
+		@Override
+		protected boolean isSparse() {
+			return true;
+		}
+
+		@Override
+		public void __generate(Problem p, Random rand) {
+			p.initialize(ProblemType.DCOP, n, new ImmutableSet<Integer>(Agt0DSL.range(0, d - 1)));
+			addConstraints(p, rand);
+			edgesBefore = graph.getNumberOfEdges();
+			long start = System.nanoTime();
+			addConnectivity(p, rand);
+			repairNanos = System.nanoTime() - start;
+			addGraph(p);
+		}
+	}
+
+	public static void main(String [] args) {
+		String [] sizes = (args.length > 0 ? args[0] : "1000,10000,50000,100000,500000").split(",");
+		double meanDegree = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		boolean connected = true;
+		System.out.println("n,edges_before,edges_after,repair_ms,ns_per_var_and_edge,connected");
+		for (String size : sizes) {
+			int n = Integer.parseInt(size);
+			ConnectedGraphGen gen = new ConnectedGraphGen();
+			MicroBench.configure(gen, "n", Integer.toString(n));
+			MicroBench.configure(gen, "d", "2");
+			// two draws per pair in the dense path, so p1 is set for a pair probability of meanDegree / (n - 1)
+			double q = Math.min(1, meanDegree / Math.max(1, n - 1));
+			MicroBench.configure(gen, "p1", Double.toString(1 - Math.sqrt(1 - q)));
+			Problem p = new Problem();
+			gen.generate(p, new Random(seed));
+			ConstraintGraph graph = ConstraintGraph.of(p);
+			boolean ok = isConnected(graph);
+			connected &= ok;
+			System.out.println(String.format(Locale.ROOT, "%d,%d,%d,%.3f,%.1f,%s", n, gen.edgesBefore,
+					graph.getNumberOfEdges(), gen.repairNanos / 1e6,
+					(double) gen.repairNanos / (n + graph.getNumberOfEdges()), ok));
+		}
+		if (!connected) {
+			System.out.println("# FAILED: some problem is not connected");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Checks that every variable is reachable from X0.
+	 */
+	static boolean isConnected(ConstraintGraph graph) {
+		int numVars = graph.getNumberOfVariables();
+		boolean [] visited = new boolean[numVars];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(0);
+		visited[0] = true;
+		int reached = 0;
+		while (!queue.isEmpty()) {
+			int var = queue.poll();
+			reached++;
+			for (int k = 0; k < graph.getDegree(var); k++) {
+				int neighbor = graph.getNeighbor(var, k);
+				if (!visited[neighbor]) {
+					visited[neighbor] = true;
+					queue.add(neighbor);
+				}
+			}
+		}
+		return reached == numVars;
+	}
+}
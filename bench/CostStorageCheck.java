@@ -0,0 +1,115 @@
+package ext.sim.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import bgu.dcr.az.api.prob.ImmutableProblem;
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.exen.pgen.AbstractProblemGenerator;
+import ext.sim.modules.CostFunctionProblem;
+import ext.sim.modules.CostStore;
+
+/**
+ * Checks that every way a generator can keep its costs gives the agents the same problem: for every generator in
+ * {@link BenchInstances#KINDS} and seed, the costs and the constraints read through
+ * {@link CostFunctionProblem#of(ImmutableProblem)} are compared, for every pair of variables and values, between
+ * the problem's tables and the {@link CostStore#EDGE} and {@link CostStore#OFF_HEAP} storage, and the analytic
+ * mode (with and without its row cache) of the meeting scheduling generators.  The meeting scheduling generators
+ * are also checked with negative time costs, which the tables store as 0.
+ * <br>
+ * It exits with status 1 if some lookup differs, so it can be run as a regression check.
+ * <br>
+ * Usage: <code>java -cp agentzero.jar:classes ext.sim.bench.CostStorageCheck [n [d [density [seeds]]]]</code>
+ */
+public class CostStorageCheck {
+
+	public static void main(String [] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int d = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+		int seeds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		boolean same = true;
+		System.out.println("kind,variant,seed,nonzero_costs,differences");
+		for (String kind : BenchInstances.KINDS) {
+			boolean meetings = kind.startsWith("dcop-meeting-scheduling");
+			List<String []> variants = new ArrayList<String []>();
+			variants.add(new String [] { "storage", CostStore.EDGE });
+			variants.add(new String [] { "storage", CostStore.OFF_HEAP });
+			if (meetings) {
+				variants.add(new String [] { "analytic", "true" });
+				variants.add(new String [] { "analytic", "true", "cost-cache-rows", "7" });
+			}
+			for (int negative = 0; negative < (meetings ? 2 : 1); negative++) {
+				for (long seed = 1; seed <= seeds; seed++) {
+					AbstractProblemGenerator tablesGen = BenchInstances.newGenerator(kind, n, d, density);
+					if (negative == 1) {
+						configureNegativeTimeCosts(tablesGen);
+					}
+					Problem tables = new Problem();
+					tablesGen.generate(tables, new Random(seed));
+					for (String [] variant : variants) {
+						AbstractProblemGenerator gen = BenchInstances.newGenerator(kind, n, d, density);
+						if (negative == 1) {
+							configureNegativeTimeCosts(gen);
+						}
+						StringBuilder name = new StringBuilder(negative == 1 ? "negative-time-costs" : "");
+						for (int k = 0; k < variant.length; k += 2) {
+							MicroBench.configure(gen, variant[k], variant[k + 1]);
+							name.append(name.length() > 0 ? " " : "").append(variant[k]).append('=').append(variant[k + 1]);
+						}
+						Problem p = new Problem();
+						gen.generate(p, new Random(seed));
+						long [] counts = compare(tables, CostFunctionProblem.of(p));
+						same &= counts[1] == 0;
+						System.out.println(kind + "," + name + "," + seed + "," + counts[0] + "," + counts[1]);
+					}
+				}
+			}
+		}
+		if (!same) {
+			System.out.println("# FAILED: some costs differ from the tables");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Time costs in [-3..3], so that some costs of the meeting scheduling generators are negative before they are
+	 * stored.
+	 */
+	static void configureNegativeTimeCosts(AbstractProblemGenerator gen) {
+		MicroBench.configure(gen, "min-time-cost", "-3");
+		MicroBench.configure(gen, "time-cost-range", "7");
+	}
+
+	/**
+	 * Compares the costs and the constraints of two problems.
+	 * @return The number of nonzero costs of <code>expected</code> and the number of differences.
+	 */
+	static long [] compare(ImmutableProblem expected, ImmutableProblem actual) {
+		long nonzero = 0;
+		long differences = 0;
+		int numVars = expected.getNumberOfVariables();
+		if (actual.getNumberOfVariables() != numVars) {
+			return new long [] { 0, 1 };
+		}
+		for (int i = 0; i < numVars; i++) {
+			for (int j = 0; j < numVars; j++) {
+				if (i == j) {
+					continue;
+				}
+				if (expected.isConstrained(i, j) != actual.isConstrained(i, j)) {
+					differences++;
+				}
+				for (int vi = 0; vi < expected.getDomainSize(i); vi++) {
+					for (int vj = 0; vj < expected.getDomainSize(j); vj++) {
+						int cost = expected.getConstraintCost(i, vi, j, vj);
+						nonzero += cost != 0 ? 1 : 0;
+						differences += cost != actual.getConstraintCost(i, vi, j, vj) ? 1 : 0;
+					}
+				}
+			}
+		}
+		return new long [] { nonzero, differences };
+	}
+}
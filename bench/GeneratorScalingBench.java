@@ -0,0 +1,215 @@
+package ext.sim.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.exen.pgen.AbstractProblemGenerator;
+import ext.sim.modules.ConstraintGraph;
+import ext.sim.modules.CostStore;
+
+/**
+ * Measures how the problem generators scale with the number of variables, the domain size and the constraint
+ * density (see {@link BenchInstances} for how the density maps to each generator).  For every configuration it
+ * records the generation time, the peak heap during generation and the heap retained by the generated
+ * <code>Problem</code> (i.e., the constraint tables, or the {@link CostStore} the generator wrote the costs to),
+ * and writes one CSV row per configuration.  Running it once with each <code>-storage</code> compares the tables
+ * to the stores.
+ * <br>
+ * The time and bytes are also reported per constraint edge, which should stay flat as n grows; when a baseline
+ * report (e.g., from the previous commit) is given, configurations whose time or bytes per edge grew by more than
+ * the threshold are flagged as regressions.
+ * <br>
+ * Usage: <code>java -Xmx8g -cp agentzero.jar:classes ext.sim.bench.GeneratorScalingBench [options]</code>
+ * <ul>
+ * <li><code>-gen</code> comma-separated generator names (default: the five basic generators)</li>
+ * <li><code>-n</code> comma-separated numbers of variables (default 100,1000,10000,100000)</li>
+ * <li><code>-d</code> comma-separated domain sizes (default 5,10)</li>
+ * <li><code>-density</code> comma-separated densities (default 0.001,0.01)</li>
+ * <li><code>-storage</code> the generators' <code>storage</code> variable: tables, edge or off-heap (default tables;
+ * the off-heap costs are not in the heap columns)</li>
+ * <li><code>-seed</code> the generator seed (default 42)</li>
+ * <li><code>-label</code> a label for the rows, e.g., the commit hash (default "local")</li>
+ * <li><code>-max-entries</code> skip configurations expected to hold more cost entries (default 50000000)</li>
+ * <li><code>-out</code> the CSV report (default generator-scaling.csv)</li>
+ * <li><code>-baseline</code> a previous CSV report to compare against</li>
+ * <li><code>-threshold</code> the ratio that is reported as a regression (default 1.5)</li>
+ * </ul>
+ */
+public class GeneratorScalingBench {
+
+	static final String HEADER = "label,generator,n,d,density,seed,edges,gen_ms,peak_heap_bytes,table_bytes,ns_per_edge,bytes_per_edge,storage";
+
+	public static void main(String [] args) throws IOException {
+		Map<String, String> opts = new HashMap<String, String>();
+		opts.put("gen", "adcop-scale-free,random_uniform_adcop,k_regular_graphs_adcop,graphcoloring-connected-noise,dcop-meeting-scheduling");
+		opts.put("n", "100,1000,10000,100000");
+		opts.put("d", "5,10");
+		opts.put("density", "0.001,0.01");
+		opts.put("storage", CostStore.TABLES);
+		opts.put("seed", "42");
+		opts.put("label", "local");
+		opts.put("max-entries", "50000000");
+		opts.put("out", "generator-scaling.csv");
+		opts.put("threshold", "1.5");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("-")) {
+				throw new IllegalArgumentException("Expected an option but got " + args[i]);
+			}
+			opts.put(args[i].substring(1), args[i + 1]);
+		}
+		long seed = Long.parseLong(opts.get("seed"));
+		long maxEntries = Long.parseLong(opts.get("max-entries"));
+		String label = opts.get("label");
+		String storage = opts.get("storage");
+
+		Map<String, String []> baseline = opts.containsKey("baseline") ? readReport(opts.get("baseline")) : null;
+		double threshold = Double.parseDouble(opts.get("threshold"));
+		int regressions = 0;
+
+		PrintWriter out = new PrintWriter(new FileWriter(opts.get("out")));
+		out.println(HEADER);
+		System.out.println(HEADER);
+		for (String kind : opts.get("gen").split(",")) {
+			for (String nStr : opts.get("n").split(",")) {
+				for (String dStr : opts.get("d").split(",")) {
+					for (String densityStr : opts.get("density").split(",")) {
+						int n = Integer.parseInt(nStr);
+						int d = Integer.parseInt(dStr);
+						double density = Double.parseDouble(densityStr);
+						// two directed d x d tables per edge
+						double expectedEntries = 0.5 * n * Math.max(1, density * (n - 1)) * 2.0 * d * d;
+						if (expectedEntries > maxEntries) {
+							System.out.println("# skipping " + kind + " n=" + n + " d=" + d + " density=" + density
+									+ " (about " + (long) expectedEntries + " cost entries)");
+							continue;
+						}
+						String row = measure(label, kind, n, d, density, storage, seed);
+						out.println(row);
+						out.flush();
+						System.out.println(row);
+						if (baseline != null && isRegression(row, baseline, threshold)) {
+							regressions++;
+						}
+					}
+				}
+			}
+		}
+		out.close();
+		if (baseline != null) {
+			System.out.println("# " + regressions + " regression(s) against " + opts.get("baseline"));
+		}
+	}
+
+	/**
+	 * Generates one instance and measures it.
+	 * @return The CSV row.
+	 */
+	static String measure(String label, String kind, int n, int d, double density, String storage, long seed) {
+		AbstractProblemGenerator gen = BenchInstances.newGenerator(kind, n, d, density);
+		MicroBench.configure(gen, "storage", storage);
+		long heapBefore = settledHeapUsed();
+		resetPeakHeap();
+		Problem p = new Problem();
+		long start = System.nanoTime();
+		gen.generate(p, new Random(seed));
+		long nanos = System.nanoTime() - start;
+		// small instances are within the noise of the collector, so negative deltas are reported as 0
+		long peak = Math.max(0, peakHeap() - heapBefore);
+		long tableBytes = Math.max(0, settledHeapUsed() - heapBefore);
+		// the generated problem has no neighbors when the costs are in a store, so the edges are counted in the graph
+		long edges = ConstraintGraph.read(p).getNumberOfEdges();
+		MicroBench.sink = p.getNumberOfVariables();
+		double perEdge = Math.max(1, edges);
+		return String.format(Locale.ROOT, "%s,%s,%d,%d,%s,%d,%d,%.3f,%d,%d,%.1f,%.1f,%s", label, kind, n, d,
+				Double.toString(density), seed, edges, nanos / 1e6, peak, tableBytes, nanos / perEdge, tableBytes / perEdge,
+				storage);
+	}
+
+	/**
+	 * Compares a row against the baseline row of the same configuration and prints it if it regressed.
+	 * @return <code>true</code> if the time or bytes per edge grew by more than <code>threshold</code>.
+	 */
+	static boolean isRegression(String row, Map<String, String []> baseline, double threshold) {
+		String [] cols = row.split(",");
+		String [] base = baseline.get(configKey(cols));
+		if (base == null) {
+			return false;
+		}
+		double timeRatio = Double.parseDouble(cols[10]) / Math.max(1e-9, Double.parseDouble(base[10]));
+		double bytesRatio = Double.parseDouble(cols[11]) / Math.max(1e-9, Double.parseDouble(base[11]));
+		if (timeRatio > threshold || bytesRatio > threshold) {
+			System.out.println(String.format(Locale.ROOT, "# REGRESSION %s n=%s d=%s density=%s: ns/edge x%.2f, bytes/edge x%.2f (baseline %s)",
+					cols[1], cols[2], cols[3], cols[4], timeRatio, bytesRatio, base[0]));
+			return true;
+		}
+		return false;
+	}
+
+	static Map<String, String []> readReport(String file) throws IOException {
+		Map<String, String []> rows = new HashMap<String, String []>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("label,") || line.startsWith("#") || line.trim().isEmpty()) {
+					continue;
+				}
+				String [] cols = line.split(",");
+				rows.put(configKey(cols), cols);
+			}
+		} finally {
+			in.close();
+		}
+		return rows;
+	}
+
+	static String configKey(String [] cols) {
+		return cols[1] + "|" + cols[2] + "|" + cols[3] + "|" + cols[4] + "|" + cols[5] + "|" + cols[12];
+	}
+
+	/**
+	 * Gets the used heap after asking for full collections until it stops shrinking.
+	 */
+	static long settledHeapUsed() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			long now = rt.totalMemory() - rt.freeMemory();
+			if (now >= used) {
+				return now;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,161 @@
+package ext.sim.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.Locale;
+
+import bgu.dcr.az.api.ano.Variable;
+
+/**
+ * Minimal micro-benchmark harness for the benchmarks in this package.  It needs nothing but the JDK and the
+ * Agent Zero jar on the classpath, so it runs offline on a plain Linux box.
+ * <br>
+ * Every benchmark is run for a number of timed warmup iterations followed by timed measurement iterations.  The
+ * score is reported as nanoseconds per operation and as bytes allocated per operation, measured with
+ * <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes</code> (the same quantity JMH reports as
+ * <code>gc.alloc.rate.norm</code>).  Results of every operation are folded into a volatile sink so the JIT
+ * cannot eliminate the measured work.
+ */
+public final class MicroBench {
+
+	/**
+	 * A benchmarked operation.  The returned value is consumed by the harness.
+	 */
+	public interface Op {
+		long run();
+	}
+
+	/**
+	 * The score of one benchmark.
+	 */
+	public static final class Result {
+		public final String name;
+		public final long ops;
+		public final double nsPerOp;
+		public final double bytesPerOp;
+
+		Result(String name, long ops, double nsPerOp, double bytesPerOp) {
+			this.name = name;
+			this.ops = ops;
+			this.nsPerOp = nsPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-72s %14.1f ns/op %12.1f B/op %12d ops", name, nsPerOp, bytesPerOp, ops);
+		}
+	}
+
+	/**
+	 * Sink for the results of the benchmarked operations.
+	 */
+	public static volatile long sink;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationNanos;
+
+	/**
+	 * Constructs a harness.
+	 * @param warmupIterations The number of unmeasured iterations.
+	 * @param measurementIterations The number of measured iterations.
+	 * @param iterationMillis The duration of a single iteration, in milliseconds.
+	 */
+	public MicroBench(int warmupIterations, int measurementIterations, long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+	}
+
+	/**
+	 * Runs a benchmark and prints its score to standard output.
+	 * @param name The benchmark name.
+	 * @param op The operation.
+	 * @return The score.
+	 */
+	public Result run(String name, Op op) {
+		for (int i = 0; i < warmupIterations; i++) {
+			iteration(op);
+		}
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < measurementIterations; i++) {
+			long bytesBefore = THREADS.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			ops += iteration(op);
+			nanos += System.nanoTime() - start;
+			bytes += THREADS.getThreadAllocatedBytes(threadId) - bytesBefore;
+		}
+		Result result = new Result(name, ops, (double) nanos / ops, (double) bytes / ops);
+		System.out.println(result);
+		return result;
+	}
+
+	/**
+	 * Runs the operation repeatedly for one iteration.
+	 * @param op The operation.
+	 * @return The number of operations executed.
+	 */
+	private long iteration(Op op) {
+		long deadline = System.nanoTime() + iterationNanos;
+		long ops = 0;
+		long acc = 0;
+		do {
+			acc += op.run();
+			ops++;
+		} while (System.nanoTime() < deadline);
+		sink = acc;
+		return ops;
+	}
+
+	/**
+	 * Sets an Agent Zero <code>@Variable</code> on a module the same way the framework does when reading a
+	 * test description: every field in the class hierarchy annotated with the given variable name is set.
+	 * @param module The generator, agent or statistic collector.
+	 * @param name The variable name.
+	 * @param value The value, in its textual form.
+	 * @throws IllegalArgumentException If no field of the module is registered under <code>name</code>.
+	 */
+	public static void configure(Object module, String name, String value) throws IllegalArgumentException {
+		boolean found = false;
+		for (Class<?> c = module.getClass(); c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				Variable variable = field.getAnnotation(Variable.class);
+				if (variable == null || !variable.name().equals(name)) {
+					continue;
+				}
+				field.setAccessible(true);
+				try {
+					Class<?> type = field.getType();
+					if (type == int.class) {
+						field.setInt(module, Integer.parseInt(value));
+					} else if (type == long.class) {
+						field.setLong(module, Long.parseLong(value));
+					} else if (type == double.class) {
+						field.setDouble(module, Double.parseDouble(value));
+					} else if (type == float.class) {
+						field.setFloat(module, Float.parseFloat(value));
+					} else if (type == boolean.class) {
+						field.setBoolean(module, Boolean.parseBoolean(value));
+					} else if (type == String.class) {
+						field.set(module, value);
+					} else {
+						throw new IllegalArgumentException("Unsupported type " + type + " for variable " + name);
+					}
+				} catch (IllegalAccessException e) {
+					throw new IllegalArgumentException(e);
+				}
+				found = true;
+			}
+		}
+		if (!found) {
+			throw new IllegalArgumentException("No variable " + name + " in " + module.getClass().getName());
+		}
+	}
+}
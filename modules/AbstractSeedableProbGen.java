@@ -100,9 +100,18 @@ public abstract class AbstractSeedableProbGen extends AbstractProblemGenerator i
 		DEBUG("The effective alg seed is " + effAlgSeed + " and the alg seed is " + algSeed);
 		
 		// now call the implementation to actually generate the problem
+		CostFunctionProblem.clear(prob);
+		clearPreviousProblem();
 		__generate(prob, rand);
 	}
 	
+	/**
+	 * Clears any state the generator kept while generating the previous problem.  Called before every call to
+	 * {@link #__generate(Problem, Random)}.
+	 */
+	protected void clearPreviousProblem() {
+	}
+	
 	/**
 	 * The implementation for problem generation.
 	 * @param prob The problem object.
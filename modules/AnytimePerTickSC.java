@@ -9,6 +9,9 @@ package ext.sim.modules;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import bgu.dcr.az.api.Agent;
 import bgu.dcr.az.api.Hooks;
@@ -21,7 +24,7 @@ import bgu.dcr.az.api.exen.stat.DBRecord;
 import bgu.dcr.az.api.exen.stat.Database;
 import bgu.dcr.az.api.exen.stat.VisualModel;
 import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
-import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.api.prob.ImmutableProblem;
 import bgu.dcr.az.api.tools.Assignment;
 import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
 
@@ -32,11 +35,104 @@ public class AnytimePerTickSC extends AbstractStatisticCollector<AnytimePerTickS
 	private long numChanges;
 	private long timeSinceLastChange;
 	private int numNonZeroConstraints;
+	private long lastTick;
+	private long lastCost;
 
-	public static enum Type { COST, ANYTIME_COST, NUM_CHANGES, TIME_SINCE_CHANGE, TIME_OF_CHANGE, NUM_NZ, AVG_NZ_COST }
+	/**
+	 * The types of statistic to show.  <code>PORTFOLIO</code> treats all the algorithm instances of the test as
+	 * one portfolio run on every problem (e.g., copies of an algorithm with different <code>seed</code>,
+	 * <code>lambda_0</code> or <code>agentType</code>), and shows the best anytime cost found by any of them by
+	 * every tick.  It only combines the results: Agent Zero runs the instances as separate executions on the
+	 * shared problem, concurrently or not as its execution settings say.
+	 */
+	public static enum Type { COST, ANYTIME_COST, NUM_CHANGES, TIME_SINCE_CHANGE, TIME_OF_CHANGE, NUM_NZ, AVG_NZ_COST, PORTFOLIO }
 
-	@Variable(name="type", description="Type of statistic to show [COST | ANYTIME_COST | NUM_CHANGES | TIME_SINCE_CHANGE | TIME_OF_CHANGE | NUM_NZ | AVG_NZ_COST]", defaultValue="ANYTIME_COST")
+	@Variable(name="type", description="Type of statistic to show [COST | ANYTIME_COST | NUM_CHANGES | TIME_SINCE_CHANGE | TIME_OF_CHANGE | NUM_NZ | AVG_NZ_COST | PORTFOLIO]", defaultValue="ANYTIME_COST")
 	Type type = Type.ANYTIME_COST;
+	/**
+	 * The number of ticks a run takes when it is not terminated early (e.g., <code>timeFrame * nPhases</code>
+	 * for the agents' <code>patience</code> quiescence detection).  Runs that end before it are padded with their
+	 * final costs, so that the per-tick averages are taken over the same ticks for every run.
+	 */
+	@Variable(name="horizon", description="Number of ticks to pad runs that terminated early to (0 = no padding)", defaultValue="0")
+	long horizon = 0;
+	/**
+	 * Whether to keep the assignment of the best cost of every algorithm instance on every problem, see
+	 * {@link #getBestAssignment(String, int)}.
+	 */
+	@Variable(name="capture-best", description="Keep the best assignment of every problem", defaultValue="false")
+	boolean captureBest = false;
+
+	/**
+	 * The best assignments, by algorithm instance and problem number.
+	 */
+	private final Map<String, Map<Integer, Assignment>> bestAssignments = new HashMap<String, Map<Integer, Assignment>>();
+
+	/**
+	 * Keeps the assignment of the best cost of one run without copying the assignment on every improvement.  It
+	 * holds the values seen at the last tick and an undo log of the old value of every variable changed since the
+	 * best tick, so an improvement only clears the log instead of copying n values, and the best assignment is
+	 * materialized once, at the end of the run, by undoing the log.
+	 * <br>
+	 * Agent Zero does not report which variables changed, so every tick finds the changes by comparing all n
+	 * values with the last tick's: a tick costs O(n), on top of the O(n + m) cost evaluation the collector does
+	 * anyway, while the log itself takes O(changes since the best tick).
+	 */
+	private static class BestAssignmentLog {
+		private final int [] last;
+		// the tick (epoch) at which every variable was last logged, so it is logged once per epoch
+		private final int [] loggedEpoch;
+		private int epoch = 1;
+		private int [] undoVars = new int[16];
+		private int [] undoValues = new int[16];
+		private int size;
+
+		BestAssignmentLog(int numVars) {
+			last = new int[numVars];
+			Arrays.fill(last, -1);
+			loggedEpoch = new int[numVars];
+		}
+
+		void observe(Assignment ass) {
+			for (int i = 0; i < last.length; i++) {
+				int value = ass.isAssigned(i) ? ass.getAssignment(i) : -1;
+				if (value == last[i]) {
+					continue;
+				}
+				if (loggedEpoch[i] != epoch) {
+					loggedEpoch[i] = epoch;
+					if (size == undoVars.length) {
+						undoVars = Arrays.copyOf(undoVars, 2 * size);
+						undoValues = Arrays.copyOf(undoValues, 2 * size);
+					}
+					undoVars[size] = i;
+					undoValues[size] = last[i];
+					size++;
+				}
+				last[i] = value;
+			}
+		}
+
+		// the values of the last tick are the best assignment
+		void markBest() {
+			epoch++;
+			size = 0;
+		}
+
+		Assignment materialize() {
+			int [] best = last.clone();
+			for (int k = 0; k < size; k++) {
+				best[undoVars[k]] = undoValues[k];
+			}
+			Assignment ass = new Assignment();
+			for (int i = 0; i < best.length; i++) {
+				if (best[i] >= 0) {
+					ass.assign(i, best[i]);
+				}
+			}
+			return ass;
+		}
+	}
 	
 	public static class AnytimeDBRecord extends DBRecord {
 		final int probNum;
@@ -153,6 +249,18 @@ public class AnytimePerTickSC extends AbstractStatisticCollector<AnytimePerTickS
 				e.printStackTrace();
 			}
 			return line;			
+		case PORTFOLIO:
+			query="select TICK, AVG(CAST(MIN_BEST_COST as DOUBLE)) as AVG_PORTFOLIO_COST from (select PROBNUM, TICK, MIN(BESTCOST) as MIN_BEST_COST from ANYTIME_COST group by PROBNUM,TICK) as PORTFOLIO group by TICK order by TICK";
+			line = new LineVisualModel("time", "Portfolio Anytime Cost", "Best Anytime Cost of All Algorithm Instances");
+			try {
+				ResultSet rs = db.query(query);
+				while (rs.next()) {
+					line.setPoint("portfolio", rs.getInt("TICK"), rs.getFloat("AVG_PORTFOLIO_COST"));
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+			return line;
 		default:
 			throw new AssertionError("Unknown type \"" + type + "\"!");
 		}
@@ -164,23 +272,37 @@ public class AnytimePerTickSC extends AbstractStatisticCollector<AnytimePerTickS
 		numChanges = 0;
 		timeSinceLastChange = 0;
 		numNonZeroConstraints = 0;
+		lastTick = 0;
+		lastCost = 0;
+		// the constraints are counted over the edges of the problem, not over all pairs of agents
+		final ConstraintGraph graph = ConstraintGraph.of(ex.getGlobalProblem());
+		// the costs of generators that do not write them to the problem's tables are read through their view,
+		// without counting them as the agents' lookups
+		final ImmutableProblem prob = CostFunctionProblem.uncountedOf(ex.getGlobalProblem());
+		// a log per run, since the runs of the algorithm instances on a problem may overlap
+		final BestAssignmentLog bestLog = captureBest ? new BestAssignmentLog(ex.getGlobalProblem().getNumberOfVariables()) : null;
 		new Hooks.TickHook() {
 			@Override
 			public void hook(SystemClock clock) {
 				long time = clock.time();
-				Problem prob = ex.getGlobalProblem();
 				Assignment ass = ex.getResult().getAssignment();
 				long cost = ass.calcCost(prob);
 				boolean change = false;
+				if (captureBest) {
+					bestLog.observe(ass);
+				}
 				if (cost < currBestCost) {
 					currBestCost = cost;
 					numChanges++;
+					if (captureBest) {
+						bestLog.markBest();
+					}
 					numNonZeroConstraints = 0;
-					for (int i = 0; i < agents.length; i++) {
-						for (int j = i + 1; j < agents.length; j++) {
-							if (prob.isConstrained(i, j) && prob.getConstraintCost(i, ass.getAssignment(i), j, ass.getAssignment(j)) > 0) {
-								numNonZeroConstraints++;
-							}
+					for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+						int i = graph.getEdgeVar1(e);
+						int j = graph.getEdgeVar2(e);
+						if (prob.getConstraintCost(i, ass.getAssignment(i), j, ass.getAssignment(j)) > 0) {
+							numNonZeroConstraints++;
 						}
 					}
 					
@@ -194,11 +316,48 @@ public class AnytimePerTickSC extends AbstractStatisticCollector<AnytimePerTickS
 				if (change) {
 					timeSinceLastChange = 0;
 				}
+				lastTick = time;
+				lastCost = cost;
+			}
+		}.hookInto(ex);
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				for (long tick = lastTick + 1; tick <= horizon; tick++) {
+					timeSinceLastChange++;
+					submit(new AnytimeDBRecord(ex.getTest().getCurrentProblemNumber(), tick, lastCost, currBestCost, numChanges, timeSinceLastChange, numNonZeroConstraints));
+				}
+				if (captureBest) {
+					String algorithmInstance = ex.getAlgorithm().getInstanceName();
+					synchronized (bestAssignments) {
+						Map<Integer, Assignment> byProblem = bestAssignments.get(algorithmInstance);
+						if (byProblem == null) {
+							byProblem = new HashMap<Integer, Assignment>();
+							bestAssignments.put(algorithmInstance, byProblem);
+						}
+						byProblem.put(ex.getTest().getCurrentProblemNumber(), bestLog.materialize());
+					}
+				}
 			}
 		}.hookInto(ex);
 	}
 
 
+	/**
+	 * Gets the assignment of the best cost an algorithm instance found on a problem, when
+	 * <code>capture-best</code> is set.
+	 * @param algorithmInstance The name of the algorithm instance, as in the ALGORITHM_INSTANCE column.
+	 * @param probNum The problem number.
+	 * @return The best assignment, or <code>null</code> if the instance did not run on the problem or it was not
+	 * captured.
+	 */
+	public Assignment getBestAssignment(String algorithmInstance, int probNum) {
+		synchronized (bestAssignments) {
+			Map<Integer, Assignment> byProblem = bestAssignments.get(algorithmInstance);
+			return byProblem == null ? null : byProblem.get(probNum);
+		}
+	}
+
 	public String getName() {
 		return "Anytime Cost per Tick";
 	}
@@ -16,16 +16,18 @@ import bgu.dcr.az.api.prob.ProblemType;
 @Register(name="as-graphcoloring-connected-noise")
 public class AsGraphColoringConnectedNoiseGen extends GraphColoringConnectedNoiseGen {
 
-public void generate(Problem p, Random rand) {
+@Override
+public void __generate(Problem p, Random rand) {
 p.initialize(ProblemType.ADCOP, n, new ImmutableSet<Integer>(Agt0DSL.range(0, d - 1)));
 addConstraints(p, rand);
 //addConnectivity(p, rand);
-for (int i = 0; i < p.getNumberOfVariables(); i++) {
-for (int j = i+1; j < p.getNumberOfVariables(); j++) {
-if (p.isConstrained(i, j)) {
-turnDCOPToGraphColoring(i, j, p, rand, (breakCost),true);
-}
+store = CostStore.create(storage, storageDir, graph, p, false, breakCost);
+for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+turnDCOPToGraphColoring(graph.getEdgeVar1(e), graph.getEdgeVar2(e), p, rand, (breakCost),true);
 }
+addGraph(p);
+if (store != null) {
+store.publish(p, ProblemType.ADCOP);
 }
 }
 
@@ -0,0 +1,256 @@
+package ext.sim.modules;
+
+import java.util.Arrays;
+
+import bgu.dcr.az.api.prob.Problem;
+
+/**
+ * Undirected constraint graph, kept as a growable edge list with a compressed-sparse-row (CSR) adjacency index
+ * that is built on demand.  Problem generators record the constraints they create here, so that later passes
+ * can iterate over the actual edges in O(m) instead of testing all n<sup>2</sup> pairs of variables with
+ * <code>Problem.isConstrained</code>.
+ * <br>
+ * A graph is built by one thread.  Once it is complete it can be read by many (e.g., by the agents): the index
+ * is an immutable snapshot published through a volatile field, and {@link #of(Problem)}, {@link #read(Problem)}
+ * and {@link CostFunctionProblem#publish()} build it before the graph is shared.
+ */
+public class ConstraintGraph {
+
+	/**
+	 * The problem metadata key of the constraint graph, so that it is built once per problem and shared by the
+	 * generator, the statistic collectors and other tools.
+	 */
+	public static final String METADATA_KEY = "constraint-graph";
+
+	/**
+	 * The number of variables (vertices) in the graph.
+	 */
+	private final int numVars;
+	/**
+	 * The smaller endpoint of every edge, indexed by edge.
+	 */
+	private int [] edgeVar1;
+	/**
+	 * The larger endpoint of every edge, indexed by edge.
+	 */
+	private int [] edgeVar2;
+	/**
+	 * The number of edges added so far.
+	 */
+	private int numEdges;
+	/**
+	 * The CSR index of the edges, <code>null</code> until it is built, and reset whenever an edge is added.
+	 */
+	private volatile Index index;
+
+	/**
+	 * The CSR adjacency index, immutable once built.
+	 */
+	private static final class Index {
+		/**
+		 * CSR offsets: the neighbors of variable <code>i</code> are <code>targets[offsets[i]..offsets[i+1]-1]</code>.
+		 */
+		final int [] offsets;
+		/**
+		 * CSR targets, sorted in increasing order for every variable.
+		 */
+		final int [] targets;
+		/**
+		 * The edge index of every CSR target.
+		 */
+		final int [] targetEdges;
+
+		Index(int [] offsets, int [] targets, int [] targetEdges) {
+			this.offsets = offsets;
+			this.targets = targets;
+			this.targetEdges = targetEdges;
+		}
+	}
+
+	/**
+	 * Constructs an empty constraint graph.
+	 * @param numVars The number of variables.
+	 */
+	public ConstraintGraph(int numVars) {
+		this.numVars = numVars;
+		this.edgeVar1 = new int[16];
+		this.edgeVar2 = new int[16];
+	}
+
+	/**
+	 * Adds an undirected edge.  The caller is responsible for not adding the same edge twice.
+	 * @param var1 One endpoint.
+	 * @param var2 The other endpoint.
+	 * @throws IllegalArgumentException If both endpoints are the same variable.
+	 */
+	public void addEdge(int var1, int var2) throws IllegalArgumentException {
+		if (var1 == var2) {
+			throw new IllegalArgumentException("Adding a self loop on variable " + var1 + "!");
+		}
+		if (numEdges == edgeVar1.length) {
+			edgeVar1 = Arrays.copyOf(edgeVar1, 2 * numEdges);
+			edgeVar2 = Arrays.copyOf(edgeVar2, 2 * numEdges);
+		}
+		edgeVar1[numEdges] = Math.min(var1, var2);
+		edgeVar2[numEdges] = Math.max(var1, var2);
+		numEdges++;
+		index = null;
+	}
+
+	/**
+	 * Gets the constraint graph of a problem: the one stored in its metadata under {@link #METADATA_KEY} (by the
+	 * generator or an earlier call), or else one built from <code>Problem.getNeighbors</code> and stored there.
+	 * The problem must not get new constraints after its graph is stored.  The index of the graph is built, so
+	 * that it can be shared between threads.
+	 * @param p The problem.
+	 * @return The constraint graph of <code>p</code>.
+	 */
+	public static ConstraintGraph of(Problem p) {
+		ConstraintGraph g = read(p);
+		if (p.getMetadata().get(METADATA_KEY) != g) {
+			p.getMetadata().put(METADATA_KEY, g);
+		}
+		return g;
+	}
+
+	/**
+	 * Gets the constraint graph of a problem without modifying it: the one stored in its metadata under
+	 * {@link #METADATA_KEY}, or else one built from <code>Problem.getNeighbors</code> and not stored.  The
+	 * index of the graph is built, so that it can be shared between threads.
+	 * <br>
+	 * The stored graph is that of the last problem generated into <code>p</code>, since the generators remove
+	 * the graph of the previous one (see {@link CostFunctionProblem#clear(Problem)}).
+	 * @param p The problem.
+	 * @return The constraint graph of <code>p</code>.
+	 */
+	public static ConstraintGraph read(Problem p) {
+		Object stored = p.getMetadata().get(METADATA_KEY);
+		if (stored instanceof ConstraintGraph && ((ConstraintGraph) stored).getNumberOfVariables() == p.getNumberOfVariables()) {
+			((ConstraintGraph) stored).buildIndex();
+			return (ConstraintGraph) stored;
+		}
+		ConstraintGraph g = new ConstraintGraph(p.getNumberOfVariables());
+		for (int i = 0; i < p.getNumberOfVariables(); i++) {
+			for (int j : p.getNeighbors(i)) {
+				if (j > i) {
+					g.addEdge(i, j);
+				}
+			}
+		}
+		g.buildIndex();
+		return g;
+	}
+
+	public int getNumberOfVariables() {
+		return numVars;
+	}
+
+	public int getNumberOfEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * Gets the smaller endpoint of an edge.
+	 * @param edge The edge index, in [0..getNumberOfEdges()-1].
+	 * @return The endpoint.
+	 */
+	public int getEdgeVar1(int edge) {
+		return edgeVar1[edge];
+	}
+
+	/**
+	 * Gets the larger endpoint of an edge.
+	 * @param edge The edge index, in [0..getNumberOfEdges()-1].
+	 * @return The endpoint.
+	 */
+	public int getEdgeVar2(int edge) {
+		return edgeVar2[edge];
+	}
+
+	/**
+	 * Gets the number of neighbors of a variable.
+	 * @param var The variable.
+	 * @return The degree of <code>var</code>.
+	 */
+	public int getDegree(int var) {
+		Index idx = getIndex();
+		return idx.offsets[var + 1] - idx.offsets[var];
+	}
+
+	/**
+	 * Gets the k-th neighbor of a variable; neighbors are sorted in increasing order.
+	 * @param var The variable.
+	 * @param k The neighbor index, in [0..getDegree(var)-1].
+	 * @return The neighbor.
+	 */
+	public int getNeighbor(int var, int k) {
+		Index idx = getIndex();
+		return idx.targets[idx.offsets[var] + k];
+	}
+
+	/**
+	 * Checks whether two variables are constrained, by a binary search in the neighbors of one of them.
+	 * @param var1 One variable.
+	 * @param var2 The other variable.
+	 * @return <code>true</code> if there is an edge between <code>var1</code> and <code>var2</code>.
+	 */
+	public boolean isConstrained(int var1, int var2) {
+		Index idx = getIndex();
+		return Arrays.binarySearch(idx.targets, idx.offsets[var1], idx.offsets[var1 + 1], var2) >= 0;
+	}
+
+	/**
+	 * Gets the index of the edge between two variables.
+	 * @param var1 One variable.
+	 * @param var2 The other variable.
+	 * @return The edge index, in [0..getNumberOfEdges()-1], or -1 if the variables are not constrained.
+	 */
+	public int getEdge(int var1, int var2) {
+		Index idx = getIndex();
+		int k = Arrays.binarySearch(idx.targets, idx.offsets[var1], idx.offsets[var1 + 1], var2);
+		return k >= 0 ? idx.targetEdges[k] : -1;
+	}
+
+	/**
+	 * Builds the CSR index with a counting sort over the edge list, in O(n + m), unless it is already built.
+	 * Call it before a complete graph is shared between threads.
+	 */
+	public void buildIndex() {
+		getIndex();
+	}
+
+	// gets the index, building it if an edge was added since it was last built
+	private Index getIndex() {
+		Index idx = index;
+		if (idx != null) {
+			return idx;
+		}
+		int [] newOffsets = new int[numVars + 1];
+		for (int e = 0; e < numEdges; e++) {
+			newOffsets[edgeVar1[e] + 1]++;
+			newOffsets[edgeVar2[e] + 1]++;
+		}
+		for (int i = 0; i < numVars; i++) {
+			newOffsets[i + 1] += newOffsets[i];
+		}
+		// targets and edge indices are packed into longs so that sorting the targets keeps their edges
+		long [] packed = new long[2 * numEdges];
+		int [] fill = Arrays.copyOf(newOffsets, numVars);
+		for (int e = 0; e < numEdges; e++) {
+			packed[fill[edgeVar1[e]]++] = ((long) edgeVar2[e] << 32) | e;
+			packed[fill[edgeVar2[e]]++] = ((long) edgeVar1[e] << 32) | e;
+		}
+		int [] newTargets = new int[2 * numEdges];
+		int [] newTargetEdges = new int[2 * numEdges];
+		for (int i = 0; i < numVars; i++) {
+			Arrays.sort(packed, newOffsets[i], newOffsets[i + 1]);
+			for (int k = newOffsets[i]; k < newOffsets[i + 1]; k++) {
+				newTargets[k] = (int) (packed[k] >>> 32);
+				newTargetEdges[k] = (int) packed[k];
+			}
+		}
+		idx = new Index(newOffsets, newTargets, newTargetEdges);
+		index = idx;
+		return idx;
+	}
+}
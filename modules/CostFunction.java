@@ -0,0 +1,25 @@
+package ext.sim.modules;
+
+/**
+ * A binary constraint cost function that is evaluated on demand instead of being stored as cost tables.
+ * Generators that define their costs this way do not write the tables; they publish the function in the problem
+ * metadata under {@link #METADATA_KEY} together with a {@link CostFunctionProblem}, through which the agents and
+ * the statistic collectors read the costs.
+ */
+public interface CostFunction {
+
+	/**
+	 * The problem metadata key of the cost function.
+	 */
+	public static final String METADATA_KEY = "cost-function";
+
+	/**
+	 * Gets the cost that <code>var1</code> pays when <code>var1 = val1</code> and <code>var2 = val2</code>.
+	 * @param var1 The variable paying the cost.
+	 * @param val1 Its value.
+	 * @param var2 The other variable.
+	 * @param val2 Its value.
+	 * @return The cost; 0 if the variables are not constrained.
+	 */
+	public int getCost(int var1, int val1, int var2, int val2);
+}
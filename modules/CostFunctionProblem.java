@@ -0,0 +1,177 @@
+package ext.sim.modules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import bgu.dcr.az.api.Agt0DSL;
+import bgu.dcr.az.api.ds.ImmutableSet;
+import bgu.dcr.az.api.prob.ImmutableProblem;
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.api.prob.ProblemType;
+
+/**
+ * A problem whose constraint costs are read from a {@link CostFunction} and whose constraints are those of a
+ * {@link ConstraintGraph}, instead of Agent Zero's cost tables.  Generators that keep their costs this way (e.g.,
+ * in procedural mode) initialize the problem they are given with the domains only, so that it takes no table
+ * memory, and {@link #publish()} this view in its metadata; the agents and the statistic collectors then read
+ * the costs and the neighbors through {@link #of(ImmutableProblem)}.
+ * <br>
+ * The domains are those of the generated problem (<code>[0..size-1]</code> for every variable) and the metadata
+ * is shared with it.  Agent Zero itself only sees the generated problem, which has no constraints: its own cost
+ * statistics read 0, its neighbor lists are empty, and cost lookups through the view are not counted as
+ * constraint checks.  The view counts them instead ({@link #getNumberOfLookups()}), and the statistic collectors
+ * read the costs through {@link #uncountedOf(ImmutableProblem)}, so that only the agents' lookups are counted.
+ */
+public class CostFunctionProblem extends Problem {
+
+	/**
+	 * The problem metadata key of the view.
+	 */
+	public static final String METADATA_KEY = "cost-function-problem";
+
+	private final Problem problem;
+	private final ProblemType type;
+	private final ConstraintGraph graph;
+	private final CostFunction costs;
+	// the agents' cost lookups, or null in the uncounted view
+	private final LongAdder lookups;
+	private CostFunctionProblem uncounted;
+
+	/**
+	 * Constructs a view of a generated problem.
+	 * @param problem The problem, initialized with its domains.
+	 * @param type The problem type.
+	 * @param graph The constraint graph, with all its edges.
+	 * @param costs The cost function, 0 for pairs of variables that are not constrained.
+	 */
+	public CostFunctionProblem(Problem problem, ProblemType type, ConstraintGraph graph, CostFunction costs) {
+		this(problem, type, graph, costs, true);
+	}
+
+	private CostFunctionProblem(Problem problem, ProblemType type, ConstraintGraph graph, CostFunction costs,
+			boolean counted) {
+		this.problem = problem;
+		this.type = type;
+		this.graph = graph;
+		this.costs = costs;
+		this.lookups = counted ? new LongAdder() : null;
+		// the domains are shared between the variables of the same domain size
+		HashMap<Integer, Set<Integer>> domainsBySize = new HashMap<Integer, Set<Integer>>();
+		ArrayList<Set<Integer>> domains = new ArrayList<Set<Integer>>(problem.getNumberOfVariables());
+		for (int i = 0; i < problem.getNumberOfVariables(); i++) {
+			int size = problem.getDomainSize(i);
+			Set<Integer> domain = domainsBySize.get(size);
+			if (domain == null) {
+				domain = new ImmutableSet<Integer>(Agt0DSL.range(0, size - 1));
+				domainsBySize.put(size, domain);
+			}
+			domains.add(domain);
+		}
+		initialize(type, domains);
+	}
+
+	/**
+	 * Gets the problem to read the costs of a problem from: the view published in its metadata, or else the
+	 * problem itself.
+	 * @param p The problem, e.g., an agent's <code>getProblem()</code>.
+	 * @return The view of <code>p</code>, or <code>p</code>.
+	 */
+	public static ImmutableProblem of(ImmutableProblem p) {
+		Object view = p.getMetadata().get(METADATA_KEY);
+		return view instanceof CostFunctionProblem ? (CostFunctionProblem) view : p;
+	}
+
+	/**
+	 * Gets the problem to read the costs of a problem from without counting the lookups, as
+	 * {@link #of(ImmutableProblem)} does for the agents: for statistic collectors and other observers.
+	 * @param p The problem, e.g., an execution's <code>getGlobalProblem()</code>.
+	 * @return An uncounted view of <code>p</code>, or <code>p</code>.
+	 */
+	public static ImmutableProblem uncountedOf(ImmutableProblem p) {
+		ImmutableProblem view = of(p);
+		return view instanceof CostFunctionProblem ? ((CostFunctionProblem) view).uncounted() : view;
+	}
+
+	/**
+	 * Stores the view, its constraint graph and its cost function in the metadata of the generated problem,
+	 * under {@link #METADATA_KEY}, {@link ConstraintGraph#METADATA_KEY} and {@link CostFunction#METADATA_KEY}.
+	 * The graph must be complete; its index is built here, before the agents share it.
+	 */
+	public void publish() {
+		graph.buildIndex();
+		problem.getMetadata().put(ConstraintGraph.METADATA_KEY, graph);
+		problem.getMetadata().put(CostFunction.METADATA_KEY, costs);
+		problem.getMetadata().put(METADATA_KEY, this);
+	}
+
+	/**
+	 * Removes the view, the constraint graph and the cost function of a previously generated problem from the
+	 * metadata of a problem object that is generated again, so that they are not taken for those of the new one.
+	 * @param p The problem, before it is generated.
+	 */
+	public static void clear(Problem p) {
+		p.getMetadata().remove(METADATA_KEY);
+		p.getMetadata().remove(ConstraintGraph.METADATA_KEY);
+		p.getMetadata().remove(CostFunction.METADATA_KEY);
+	}
+
+	public ConstraintGraph getGraph() {
+		return graph;
+	}
+
+	public CostFunction getCostFunction() {
+		return costs;
+	}
+
+	/**
+	 * Gets the number of costs looked up through this view so far, which Agent Zero does not count as constraint
+	 * checks.  The runs of all the algorithm instances on the problem share the view, and thus the count.
+	 */
+	public long getNumberOfLookups() {
+		return lookups == null ? 0 : lookups.sum();
+	}
+
+	@Override
+	public int getConstraintCost(int var1, int val1, int var2, int val2) {
+		if (lookups != null) {
+			lookups.increment();
+		}
+		return costs.getCost(var1, val1, var2, val2);
+	}
+
+	/**
+	 * Gets the neighbors of a variable in the constraint graph, as a new set.
+	 */
+	@Override
+	public Set<Integer> getNeighbors(int var) {
+		HashSet<Integer> neighbors = new HashSet<Integer>();
+		for (int k = 0; k < graph.getDegree(var); k++) {
+			neighbors.add(graph.getNeighbor(var, k));
+		}
+		return neighbors;
+	}
+
+	@Override
+	public boolean isConstrained(int var1, int var2) {
+		return var1 != var2 && graph.isConstrained(var1, var2);
+	}
+
+	// the view without counting, created once
+	private synchronized CostFunctionProblem uncounted() {
+		if (lookups == null) {
+			return this;
+		}
+		if (uncounted == null) {
+			uncounted = new CostFunctionProblem(problem, type, graph, costs, false);
+		}
+		return uncounted;
+	}
+
+	@Override
+	public HashMap<String, Object> getMetadata() {
+		return problem.getMetadata();
+	}
+}
@@ -0,0 +1,113 @@
+package ext.sim.modules;
+
+import java.io.File;
+
+import bgu.dcr.az.api.prob.Problem;
+import bgu.dcr.az.api.prob.ProblemType;
+
+/**
+ * Constraint costs kept in one block per edge of a {@link ConstraintGraph} instead of the problem's tables, on
+ * the heap ({@link EdgeCostStore}) or off it ({@link OffHeapCostStore}).
+ * Generators whose <code>storage</code> variable names a store write their costs into it and then
+ * {@link #publish(Problem, ProblemType)} it, so that the agents read the costs from the store through a
+ * {@link CostFunctionProblem}.
+ */
+public abstract class CostStore implements CostFunction {
+
+	/**
+	 * The <code>storage</code> of the generators that write the costs to the problem's tables (the default).
+	 */
+	public static final String TABLES = "tables";
+	/**
+	 * The <code>storage</code> of an {@link EdgeCostStore}.
+	 */
+	public static final String EDGE = "edge";
+	/**
+	 * The <code>storage</code> of an {@link OffHeapCostStore}; in direct memory, it needs
+	 * <code>-XX:MaxDirectMemorySize</code> to be larger than the heap.
+	 */
+	public static final String OFF_HEAP = "off-heap";
+
+	/**
+	 * Creates the store a generator's <code>storage</code> variable names.
+	 * @param storage {@link #TABLES}, {@link #EDGE} or {@link #OFF_HEAP}.
+	 * @param directory The directory of the file to map an off-heap store to (a new file for every store), or an
+	 * empty string to keep it in direct memory.
+	 * @param graph The constraint graph the store adds its constraints to; edges it already has get blocks too.
+	 * @param p The problem, initialized with its domains.
+	 * @param symmetric Whether the costs are the same in both directions of every constraint.
+	 * @param maxCost The maximal absolute cost that will be stored.
+	 * @return The store, or <code>null</code> for {@link #TABLES}.
+	 * @throws IllegalArgumentException If the storage is unknown.
+	 * @throws IllegalStateException If the file cannot be created or mapped.
+	 */
+	public static CostStore create(String storage, String directory, ConstraintGraph graph, Problem p, boolean symmetric,
+			int maxCost) throws IllegalArgumentException, IllegalStateException {
+		if (storage.equals(TABLES)) {
+			return null;
+		}
+		int [] domainSizes = new int[p.getNumberOfVariables()];
+		for (int i = 0; i < domainSizes.length; i++) {
+			domainSizes[i] = p.getDomainSize(i);
+		}
+		if (storage.equals(EDGE)) {
+			return new EdgeCostStore(graph, domainSizes, symmetric, maxCost);
+		}
+		if (storage.equals(OFF_HEAP)) {
+			return new OffHeapCostStore(graph, domainSizes, symmetric, maxCost,
+					directory.isEmpty() ? null : new File(directory));
+		}
+		throw new IllegalArgumentException("Unknown storage \"" + storage + "\"!");
+	}
+
+	public abstract ConstraintGraph getGraph();
+
+	public abstract boolean isSymmetric();
+
+	/**
+	 * Adds a constraint with all costs 0.  The caller is responsible for not adding the same constraint twice.
+	 * @param var1 One variable.
+	 * @param var2 The other variable.
+	 * @return The edge index of the constraint.
+	 */
+	public abstract int addConstraint(int var1, int var2);
+
+	/**
+	 * Sets a cost.  In symmetric mode this also sets <code>cost(var2, val2, var1, val1)</code>.
+	 * @throws IllegalArgumentException If the variables are not constrained, or the cost does not fit the store.
+	 */
+	public void setCost(int var1, int val1, int var2, int val2, int cost) throws IllegalArgumentException {
+		int edge = var1 == var2 ? -1 : getGraph().getEdge(var1, var2);
+		if (edge < 0) {
+			throw new IllegalArgumentException("Variables " + var1 + " and " + var2 + " are not constrained!");
+		}
+		setCost(edge, var1, val1, var2, val2, cost);
+	}
+
+	/**
+	 * Sets a cost of a known edge, without looking it up in the graph (e.g., while constraints are still being
+	 * added, when the graph's index would have to be rebuilt for every lookup).
+	 * @param edge The edge index returned by {@link #addConstraint(int, int)} for <code>var1</code> and
+	 * <code>var2</code>.
+	 * @throws IllegalArgumentException If the cost does not fit the store.
+	 */
+	public abstract void setCost(int edge, int var1, int val1, int var2, int val2, int cost)
+			throws IllegalArgumentException;
+
+	/**
+	 * Multiplies all the costs by a factor (e.g., the x1000 of the noise generators), widening the storage if
+	 * the scaled costs need it.
+	 * @param factor The factor.
+	 * @throws ArithmeticException If a scaled cost overflows an int.
+	 */
+	public abstract void scale(int factor) throws ArithmeticException;
+
+	/**
+	 * Publishes the store, with all its costs set, as the costs of a generated problem.
+	 * @param p The problem, initialized with its domains and without cost tables.
+	 * @param type The problem type.
+	 */
+	public void publish(Problem p, ProblemType type) {
+		new CostFunctionProblem(p, type, getGraph(), this).publish();
+	}
+}
@@ -0,0 +1,253 @@
+package ext.sim.modules;
+
+import java.util.Arrays;
+
+/**
+ * Constraint cost tables stored as one contiguous block per edge of a {@link ConstraintGraph}, so that a
+ * generator's costs take one array instead of a table object per constrained pair.  The block of an edge
+ * between <code>var1 &lt; var2</code> is indexed by <code>val1 * d(var2) + val2</code>.
+ * <br>
+ * In symmetric mode (pure DCOPs, where <code>cost(i, vi, j, vj) == cost(j, vj, i, vi)</code>) an edge has a
+ * single block that serves both directions by transposed indexing, which halves the memory and the writes.
+ * In asymmetric mode (ADCOPs) it has a second block for the costs paid by <code>var2</code>.
+ * <br>
+ * The costs are kept in the narrowest of byte, short or int storage that holds the maximal cost the generator
+ * can produce, which makes the blocks of small-cost problems 2-4 times smaller.  Setting a cost that does not fit
+ * the chosen width is an error; {@link #scale(int)} widens the storage when the scaled costs need it.
+ * <br>
+ * Generators write their costs here when their <code>storage</code> variable is {@link CostStore#EDGE}.
+ */
+public class EdgeCostStore extends CostStore {
+
+	private final ConstraintGraph graph;
+	private final int [] domainSizes;
+	private final boolean symmetric;
+	/**
+	 * The start of the block of every edge in <code>costs</code>.
+	 */
+	private int [] blockStart;
+	/**
+	 * The number of bytes per cost: 1, 2 or 4.  Only the array of that width is allocated.
+	 */
+	private int width;
+	private byte [] byteCosts;
+	private short [] shortCosts;
+	private int [] intCosts;
+	private int size;
+
+	/**
+	 * Constructs an empty store.
+	 * @param domainSizes The domain size of every variable.
+	 * @param symmetric Whether the costs are the same in both directions of every constraint.
+	 * @param maxCost The maximal absolute cost that will be stored, which determines the storage width.
+	 */
+	public EdgeCostStore(int [] domainSizes, boolean symmetric, int maxCost) {
+		this(new ConstraintGraph(domainSizes.length), domainSizes, symmetric, maxCost);
+	}
+
+	/**
+	 * Constructs a store over a constraint graph, with all costs 0.  The edges the graph already has get their
+	 * blocks at once, and the constraints added later are added to it.
+	 * @param graph The constraint graph.
+	 * @param domainSizes The domain size of every variable.
+	 * @param symmetric Whether the costs are the same in both directions of every constraint.
+	 * @param maxCost The maximal absolute cost that will be stored, which determines the storage width.
+	 */
+	public EdgeCostStore(ConstraintGraph graph, int [] domainSizes, boolean symmetric, int maxCost) {
+		this.graph = graph;
+		this.domainSizes = domainSizes;
+		this.symmetric = symmetric;
+		this.blockStart = new int[Math.max(16, graph.getNumberOfEdges())];
+		allocate(widthFor(maxCost), 64);
+		for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+			addBlock(e);
+		}
+	}
+
+	/**
+	 * Constructs an empty store for variables with the same domain size.
+	 * @param numVars The number of variables.
+	 * @param d The domain size.
+	 * @param symmetric Whether the costs are the same in both directions of every constraint.
+	 * @param maxCost The maximal absolute cost that will be stored, which determines the storage width.
+	 */
+	public EdgeCostStore(int numVars, int d, boolean symmetric, int maxCost) {
+		this(filled(numVars, d), symmetric, maxCost);
+	}
+
+	/**
+	 * Gets the number of bytes per cost needed to store costs up to a maximal absolute cost.
+	 * @param maxCost The maximal absolute cost.
+	 * @return 1, 2 or 4.
+	 */
+	public static int widthFor(int maxCost) {
+		// as a long, since the absolute value of Integer.MIN_VALUE does not fit an int
+		long abs = Math.abs((long) maxCost);
+		if (abs <= Byte.MAX_VALUE) {
+			return 1;
+		}
+		if (abs <= Short.MAX_VALUE) {
+			return 2;
+		}
+		return 4;
+	}
+
+	@Override
+	public ConstraintGraph getGraph() {
+		return graph;
+	}
+
+	@Override
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+	public int getDomainSize(int var) {
+		return domainSizes[var];
+	}
+
+	/**
+	 * Gets the number of bytes per stored cost.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the number of stored cost entries.
+	 */
+	public long getNumberOfEntries() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes taken by the stored cost entries.
+	 */
+	public long getNumberOfCostBytes() {
+		return (long) width * size;
+	}
+
+	@Override
+	public int addConstraint(int var1, int var2) {
+		graph.addEdge(var1, var2);
+		int edge = graph.getNumberOfEdges() - 1;
+		addBlock(edge);
+		return edge;
+	}
+
+	// allocates the block of an edge after the blocks of all the edges before it
+	private void addBlock(int edge) {
+		int blockSize = domainSizes[graph.getEdgeVar1(edge)] * domainSizes[graph.getEdgeVar2(edge)] * (symmetric ? 1 : 2);
+		if (edge == blockStart.length) {
+			blockStart = Arrays.copyOf(blockStart, 2 * edge);
+		}
+		if ((long) size + blockSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("More than " + Integer.MAX_VALUE + " cost entries!");
+		}
+		if (size + blockSize > capacity()) {
+			allocate(width, (int) Math.min(Integer.MAX_VALUE, Math.max(2L * capacity(), size + blockSize)));
+		}
+		blockStart[edge] = size;
+		size += blockSize;
+	}
+
+	@Override
+	public void setCost(int edge, int var1, int val1, int var2, int val2, int cost) throws IllegalArgumentException {
+		if (widthFor(cost) > width) {
+			throw new IllegalArgumentException("Cost " + cost + " does not fit in " + width + " byte(s)!");
+		}
+		write(index(edge, var1, val1, var2, val2), cost);
+	}
+
+	@Override
+	public void scale(int factor) throws ArithmeticException {
+		int maxCost = 0;
+		for (int index = 0; index < size; index++) {
+			maxCost = Math.max(maxCost, Math.abs(Math.multiplyExact(read(index), factor)));
+		}
+		if (widthFor(maxCost) > width) {
+			allocate(widthFor(maxCost), capacity());
+		}
+		for (int index = 0; index < size; index++) {
+			write(index, read(index) * factor);
+		}
+	}
+
+	@Override
+	public int getCost(int var1, int val1, int var2, int val2) {
+		int edge = var1 == var2 ? -1 : graph.getEdge(var1, var2);
+		return edge < 0 ? 0 : read(index(edge, var1, val1, var2, val2));
+	}
+
+	// the index of a cost of an edge in costs
+	private int index(int edge, int var1, int val1, int var2, int val2) {
+		if (var1 < var2) {
+			return blockStart[edge] + val1 * domainSizes[var2] + val2;
+		}
+		// var1 is the larger variable: transposed, in the first block if symmetric or else in the second one
+		int index = blockStart[edge] + val2 * domainSizes[var1] + val1;
+		return symmetric ? index : index + domainSizes[var1] * domainSizes[var2];
+	}
+
+	private int capacity() {
+		switch (width) {
+		case 1:
+			return byteCosts.length;
+		case 2:
+			return shortCosts.length;
+		default:
+			return intCosts.length;
+		}
+	}
+
+	private int read(int index) {
+		switch (width) {
+		case 1:
+			return byteCosts[index];
+		case 2:
+			return shortCosts[index];
+		default:
+			return intCosts[index];
+		}
+	}
+
+	private void write(int index, int cost) {
+		switch (width) {
+		case 1:
+			byteCosts[index] = (byte) cost;
+			break;
+		case 2:
+			shortCosts[index] = (short) cost;
+			break;
+		default:
+			intCosts[index] = cost;
+		}
+	}
+
+	// (re)allocates the storage with the given width and capacity, copying the stored costs
+	private void allocate(int newWidth, int newCapacity) {
+		byte [] newByteCosts = newWidth == 1 ? new byte[newCapacity] : null;
+		short [] newShortCosts = newWidth == 2 ? new short[newCapacity] : null;
+		int [] newIntCosts = newWidth == 4 ? new int[newCapacity] : null;
+		for (int index = 0; index < size; index++) {
+			int cost = read(index);
+			if (newWidth == 1) {
+				newByteCosts[index] = (byte) cost;
+			} else if (newWidth == 2) {
+				newShortCosts[index] = (short) cost;
+			} else {
+				newIntCosts[index] = cost;
+			}
+		}
+		width = newWidth;
+		byteCosts = newByteCosts;
+		shortCosts = newShortCosts;
+		intCosts = newIntCosts;
+	}
+
+	private static int [] filled(int length, int value) {
+		int [] array = new int[length];
+		Arrays.fill(array, value);
+		return array;
+	}
+}
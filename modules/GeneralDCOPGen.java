@@ -1,22 +1,22 @@
 package ext.sim.modules;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
 import java.util.Random;
-import java.util.Set;
 import java.util.Vector;
 
 import bgu.dcr.az.api.ano.Register;
 import bgu.dcr.az.api.ano.Variable;
 import bgu.dcr.az.api.prob.Problem;
-import bgu.dcr.az.exen.pgen.AbstractProblemGenerator;
 
 //**********
 //NOTE: this problem generator creates an abstract CONNECTED (or unstructured) DCOP problem, with no costs between
 //variables (only constraints). We will use it to create a connected (or unstructured) DCOP/ADCOP problem later.
+//All randomness must come from the Random passed to __generate, which is seeded by AbstractSeedableProbGen, so
+//that instances are reproducible and can be generated concurrently.
 //**********
 
 @Register(name="general-dcop")
-public abstract class GeneralDCOPGen extends AbstractProblemGenerator {
+public abstract class GeneralDCOPGen extends AbstractSeedableProbGen {
 
 @Variable(name = "n", description = "number of variables", defaultValue = "10")
 protected int n = 10;
@@ -29,56 +29,216 @@ protected double p2 = 0.6;
 @Variable(name = "max-cost", description = "cost of breaking a constraint", defaultValue = "10")
 protected int maxCost = 10;
 
+//The constraints built by this generator, recorded as they are created so that later passes only visit actual edges
+protected ConstraintGraph graph;
+//The constrained pairs (i * n + j, i < j) while the dense path adds constraints to a problem without tables
+private LongHashSet constrainedPairs;
+
+//The constraints of the previous problem must not leak into the next one, whether or not addConstraints is called
+@Override
+protected void clearPreviousProblem() {
+graph = null;
+}
+
+//Whether to sample the constraint edge list directly in O(n + m); only generators that set the costs per edge of
+//the graph afterwards (instead of relying on the 0-cost tables of buildConstraint) can do so
+protected boolean isSparse() {
+return false;
+}
+//Whether the costs are written to the problem's tables; generators that keep them elsewhere (see CostStore) get no
+//0-cost tables from buildConstraint, and the dense path checks the recorded edges instead of the problem, drawing
+//the same constraints
+protected boolean usesTables() {
+return true;
+}
 
 //Build a new constraint between two variables
 protected void addConstraints(Problem p, Random rand) {
+graph = new ConstraintGraph(p.getNumberOfVariables());
+if (isSparse()) {
+addSparseConstraints(p, rand);
+return;
+}
+constrainedPairs = usesTables() ? null : new LongHashSet(16);
 for (int i = 0; i < p.getNumberOfVariables(); i++) {
 for (int j = 0; j < p.getNumberOfVariables(); j++) {
-if (rand.nextDouble() < p1 && i!=j) {
-buildConstraint(i, j, p);
-buildConstraint(j, i, p);
+if (rand.nextDouble() < p1 && i!=j && !isConstrained(i, j, p)) {
+connect(i, j, p);
+}
+}
+}
+constrainedPairs = null;
+}
+//Whether two variables are constrained, by the problem's tables or, without them, by the recorded edges
+protected boolean isConstrained(int var1, int var2, Problem p) {
+if (constrainedPairs == null) {
+return p.isConstrained(var1, var2);
+}
+return constrainedPairs.contains((long) Math.min(var1, var2) * p.getNumberOfVariables() + Math.max(var1, var2));
 }
+//Sample the same distribution as addConstraints without visiting non-edges: every unordered pair gets two draws
+//there, so it is constrained with probability q = 1-(1-p1)^2, and the gaps between successive constrained pairs
+//(in row-major order over i < j) are geometric. Only the edge list is kept; the costs are set later per edge.
+protected void addSparseConstraints(Problem p, Random rand) {
+int numVars = p.getNumberOfVariables();
+double q = 1 - (1 - p1) * (1 - p1);
+if (q <= 0) {
+return;
 }
+double logNotQ = Math.log(1 - q);
+int i = 0;
+long rowStart = 0; //index of the pair (i, i+1)
+long rowEnd = numVars - 1; //index of the first pair of the next row
+long numPairs = (long) numVars * (numVars - 1) / 2;
+long pair = -1;
+while (true) {
+pair += (q >= 1) ? 1 : 1 + (long) Math.floor(Math.log(1 - rand.nextDouble()) / logNotQ);
+if (pair >= numPairs) {
+return;
+}
+while (pair >= rowEnd) {
+i++;
+rowStart = rowEnd;
+rowEnd += numVars - 1 - i;
+}
+connect(i, i + 1 + (int) (pair - rowStart), p);
+}
+}
+//Record a new constraint between two variables; in sparse mode, or without tables, only the edge is kept and the
+//costs are set later
+protected void connect(int var1, int var2, Problem p) {
+graph.addEdge(var1, var2);
+if (constrainedPairs != null) {
+constrainedPairs.add((long) Math.min(var1, var2) * p.getNumberOfVariables() + Math.max(var1, var2));
+}
+if (!isSparse() && usesTables()) {
+buildConstraint(Math.min(var1, var2), Math.max(var1, var2), p);
+buildConstraint(Math.max(var1, var2), Math.min(var1, var2), p);
 }
 }
 //Connect all variables to make the problem connected
+//The components are found with union-find in a single pass over the constraints (the recorded edge list when
+//addConstraints built one), and every component that has no
+//path to X0 is then linked by one new constraint between a random member of it and a random connected variable
 protected void addConnectivity(Problem p, Random rand) {
-Vector<Integer> connected = new Vector<Integer>();
-Vector<Integer> unconnected = new Vector<Integer>();
-
-for (int i = 0; i < p.getNumberOfVariables(); i++) {
-unconnected.add(i);
+int numVars = p.getNumberOfVariables();
+int[] parent = new int[numVars];
+for (int i = 0; i < numVars; i++) {
+parent[i] = i;
 }
-connected.addAll(findConnections(p, 0)); //get all variables that are somehow connected to X0 (have a path that leads to it)
-unconnected.removeAll(connected);	//get all variables that don't have a path from X0
-
-//now we connect all the unconnected variable, making the problem CONNECTED 
-while (!unconnected.isEmpty()) { //for each of the unconnected variables
-int var1 = unconnected.get(rand.nextInt(unconnected.size()));; //randomly choose one unconnected variable
-int var2 = connected.get(rand.nextInt(connected.size())); //randomly choose a variable to connect to
-connected.add(var1);
-unconnected.removeElement(var1);
+if (graph != null) {
+for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+union(parent, graph.getEdgeVar1(e), graph.getEdgeVar2(e));
+}
+} else {
+for (int i = 0; i < numVars; i++) {
+for (Integer j : p.getNeighbors(i)) {
+if (j > i) {
+union(parent, i, j);
+}
+}
+}
+}
+linkComponents(p, rand, parent);
+}
+//Store the constraint graph in the problem metadata, for the statistic collectors and other tools
+protected void addGraph(Problem p) {
+if (graph != null) {
+p.getMetadata().put(ConstraintGraph.METADATA_KEY, graph);
+}
+}
+//Link every component to the component of X0, given the union-find forest of the constraint graph
+protected void linkComponents(Problem p, Random rand, int[] parent) {
+int numVars = parent.length;
+//group the variables by component (counting sort on the component roots)
+int[] compStart = new int[numVars + 1];
+for (int i = 0; i < numVars; i++) {
+compStart[find(parent, i) + 1]++;
+}
+for (int i = 0; i < numVars; i++) {
+compStart[i + 1] += compStart[i];
+}
+int[] members = new int[numVars];
+int[] fill = new int[numVars];
+for (int i = 0; i < numVars; i++) {
+int root = find(parent, i);
+members[compStart[root] + fill[root]++] = i;
+}
+int[] connected = new int[numVars]; //all variables that have a path to X0
+int numConnected = 0;
+int[] unconnectedRoots = new int[numVars]; //roots of the components that don't have a path to X0
+int numUnconnected = 0;
+int rootOfX0 = find(parent, 0);
+for (int root = 0; root < numVars; root++) {
+if (compStart[root + 1] == compStart[root]) { //not a root
+continue;
+}
+if (root == rootOfX0) {
+for (int k = compStart[root]; k < compStart[root + 1]; k++) {
+connected[numConnected++] = members[k];
+}
+} else {
+unconnectedRoots[numUnconnected++] = root;
+}
+}
+//now we connect the unconnected components in a random order, making the problem CONNECTED
+for (int k = numUnconnected - 1; k > 0; k--) {
+int r = rand.nextInt(k + 1);
+int temp = unconnectedRoots[k];
+unconnectedRoots[k] = unconnectedRoots[r];
+unconnectedRoots[r] = temp;
+}
+for (int k = 0; k < numUnconnected; k++) {
+int root = unconnectedRoots[k];
+int size = compStart[root + 1] - compStart[root];
+int var1 = members[compStart[root] + rand.nextInt(size)]; //randomly choose one variable of the component
+int var2 = connected[rand.nextInt(numConnected)]; //randomly choose a variable to connect to
+if (graph != null) {
+connect(var1, var2, p); //build a new constraint between them
+} else {
 buildConstraint(Math.min(var1, var2), Math.max(var1, var2), p); //build a new constraint between them
-buildConstraint(Math.max(var1, var2), Math.min(var1, var2), p); //build a new constraint between them	
+buildConstraint(Math.max(var1, var2), Math.min(var1, var2), p); //build a new constraint between them
+}
+for (int m = compStart[root]; m < compStart[root + 1]; m++) {
+connected[numConnected++] = members[m];
+}
+}
+}
+//Union-find lookup with path halving
+protected static int find(int[] parent, int var) {
+while (parent[var] != var) {
+parent[var] = parent[parent[var]];
+var = parent[var];
+}
+return var;
+}
+protected static void union(int[] parent, int var1, int var2) {
+int root1 = find(parent, var1);
+int root2 = find(parent, var2);
+if (root1 != root2) {
+parent[Math.max(root1, root2)] = Math.min(root1, root2);
 }
 }
-//BFS algorithm for finding all variables that have a path to X0
+//BFS algorithm for finding all variables that have a path to X0, over the CSR adjacency of the constraint graph
 protected Vector<Integer> findConnections(Problem p, int var){ 
-Vector<Integer> myQueue = new Vector<Integer>();
-Set<Integer> mySet = new HashSet<Integer>();
-myQueue.add(myQueue.size(), var);
-mySet.add(var);
+ConstraintGraph g = graph != null ? graph : ConstraintGraph.of(p);
+ArrayDeque<Integer> myQueue = new ArrayDeque<Integer>();
+boolean[] visited = new boolean[p.getNumberOfVariables()];
+Vector<Integer> connections = new Vector<Integer>();
+myQueue.add(var);
+visited[var] = true;
 while (!myQueue.isEmpty()) {
-int currentVar = myQueue.remove(0);
-for (Integer i : p.getNeighbors(currentVar)) {
-if (!mySet.contains(i)) {
-mySet.add(i);
-myQueue.add(myQueue.size(), i);	
+int currentVar = myQueue.poll();
+connections.add(currentVar);
+for (int k = 0; k < g.getDegree(currentVar); k++) {
+int i = g.getNeighbor(currentVar, k);
+if (!visited[i]) {
+visited[i] = true;
+myQueue.add(i);
 }
 }
 }
-myQueue.addAll(mySet);
-return myQueue;
+return connections;
 }//the method returns all the variables that have a path leading to X0
 //Initially, set all costs to 0
 protected void buildConstraint(int var1, int var2, Problem p) {
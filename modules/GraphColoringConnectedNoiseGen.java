@@ -30,40 +30,74 @@ int d = 2;
 float p1 = 0.6f;
 @Variable(name = "max-cost", description = "cost of breaking a constraint", defaultValue = "10")
 int breakCost = 10;
+@Variable(name = "sparse", description = "sample the constraint edge list directly in O(n + m) instead of drawing for every pair of variables", defaultValue = "false")
+boolean sparse = false;
+@Variable(name = "storage", description = "where to keep the costs: tables (the problem's), edge (one block per constraint) or off-heap (the same blocks outside of the heap), read by the agents through the CostFunctionProblem published in the problem metadata", defaultValue = "tables")
+String storage = "tables";
+@Variable(name = "storage-dir", description = "the directory to map the costs to with off-heap storage, in a new file for every problem that is deleted when the JVM exits (empty = direct memory, which is limited by the JVM option -XX:MaxDirectMemorySize, by default the maximal heap size)", defaultValue = "")
+String storageDir = "";
 
+//The store the costs are written to, null if they are written to the problem's tables
+protected CostStore store;
 
-public void generate(Problem p, Random rand) {
+@Override
+protected boolean isSparse() {
+return sparse;
+}
+
+//A store only gets the costs once the graph is complete, so it takes no 0-cost tables; the same constraints are drawn
+@Override
+protected boolean usesTables() {
+return storage.equals(CostStore.TABLES);
+}
+
+@Override
+protected void clearPreviousProblem() {
+super.clearPreviousProblem();
+store = null;
+}
+
+
+@Override
+public void __generate(Problem p, Random rand) {
 p.initialize(ProblemType.DCOP, n, new ImmutableSet<Integer>(Agt0DSL.range(0, d - 1)));
 addConstraints(p, rand);
 addConnectivity(p, rand);
-for (int i = 0; i < p.getNumberOfVariables(); i++) {
-for (int j = i+1; j < p.getNumberOfVariables(); j++) {
-if (p.isConstrained(i, j)) {
-turnDCOPToGraphColoring(i, j, p, rand, breakCost, false);
-}
+store = CostStore.create(storage, storageDir, graph, p, true, breakCost);
+for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+turnDCOPToGraphColoring(graph.getEdgeVar1(e), graph.getEdgeVar2(e), p, rand, breakCost, false);
 }
+addGraph(p);
+if (store != null) {
+store.publish(p, ProblemType.DCOP);
 }
 }
+//Choosing the same color is the only case of cost in a graph coloring problem. Different colors cost nothing,
+//which is already the default cost, so only the diagonal of the constraint is written.
 protected void turnDCOPToGraphColoring(int var1, int var2, Problem p, Random rand, int constraintCost, boolean asy) {
-int cost;
-for (int i = 0; i < p.getDomainSize(var1); i++) {
-for (int j = 0; j < p.getDomainSize(var2); j++) {
-if (i==j)  //this is the only case of cost in a graph coloring problem
-cost = constraintCost; 
-else  //the variables 'chose' different colors, hence no cost
-cost = 0;
-
+int numColors = Math.min(p.getDomainSize(var1), p.getDomainSize(var2));
+for (int i = 0; i < numColors; i++) {
 if (asy == true) {
-    double r = Math.random();
-    p.setConstraintCost(var1, i, var2, j, (int)(cost*r));
-    double r2 = Math.random();
-    p.setConstraintCost(var2, j, var1, i, (int)(cost*(r2)));
+    double r = rand.nextDouble();
+    setCost(p, var1, i, var2, i, (int)(constraintCost*r));
+    double r2 = rand.nextDouble();
+    setCost(p, var2, i, var1, i, (int)(constraintCost*(r2)));
 }
 else {
-    p.setConstraintCost(var1, i, var2, j, cost);
-    p.setConstraintCost(var2, j, var1, i, cost);
+    setCost(p, var1, i, var2, i, constraintCost);
+    //a symmetric store serves both directions from one cost
+    if (store == null || !store.isSymmetric()) {
+        setCost(p, var2, i, var1, i, constraintCost);
+    }
+}
 }
 }
+//Write a cost to the store, or else to the problem's tables
+protected void setCost(Problem p, int var1, int val1, int var2, int val2, int cost) {
+if (store != null) {
+store.setCost(var1, val1, var2, val2, cost);
+} else {
+p.setConstraintCost(var1, val1, var2, val2, cost);
 }
 }
 /*
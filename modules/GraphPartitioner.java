@@ -0,0 +1,172 @@
+package ext.sim.modules;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Partitions a constraint graph into <code>k</code> parts of balanced load with few cut edges, to estimate how
+ * many neighbor messages would stay within a thread if agents were placed on worker threads by their part.
+ * <br>
+ * The initial partition cuts a breadth-first order of the graph into contiguous chunks of equal load, which
+ * already keeps most neighborhoods together.  It is then refined by size-constrained label propagation: every
+ * variable, in a random order, moves to the part holding most of its neighbors if that reduces the cut and the
+ * part stays within <code>(1 + epsilon)</code> of the average load.  The load of a variable is
+ * <code>1 + degree</code>, since an agent's work per round is proportional to its number of neighbors.
+ * All steps are O(n + m) per refinement pass.
+ */
+public final class GraphPartitioner {
+
+	/**
+	 * The allowed load imbalance during refinement.
+	 */
+	public static final double EPSILON = 0.03;
+
+	private GraphPartitioner() {
+	}
+
+	/**
+	 * Partitions a graph.
+	 * @param g The constraint graph.
+	 * @param k The number of parts (e.g., worker threads).
+	 * @param passes The number of label propagation passes.
+	 * @param rand The pseudorandom number generator.
+	 * @return The part of every variable, in [0..k-1].
+	 */
+	public static int [] partition(ConstraintGraph g, int k, int passes, Random rand) {
+		int n = g.getNumberOfVariables();
+		int [] part = new int[n];
+		if (k <= 1 || n == 0) {
+			return part;
+		}
+		long totalLoad = 0;
+		for (int i = 0; i < n; i++) {
+			totalLoad += load(g, i);
+		}
+		// initial partition: contiguous chunks of a BFS order (restarted for every component)
+		long [] partLoad = new long[k];
+		boolean [] visited = new boolean[n];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		long assignedLoad = 0;
+		for (int root = 0; root < n; root++) {
+			if (visited[root]) {
+				continue;
+			}
+			visited[root] = true;
+			queue.add(root);
+			while (!queue.isEmpty()) {
+				int var = queue.poll();
+				int p = (int) Math.min(k - 1, assignedLoad * k / totalLoad);
+				part[var] = p;
+				partLoad[p] += load(g, var);
+				assignedLoad += load(g, var);
+				for (int j = 0; j < g.getDegree(var); j++) {
+					int neighbor = g.getNeighbor(var, j);
+					if (!visited[neighbor]) {
+						visited[neighbor] = true;
+						queue.add(neighbor);
+					}
+				}
+			}
+		}
+		// refinement: size-constrained label propagation
+		long maxLoad = (long) Math.ceil((1 + EPSILON) * totalLoad / k);
+		int [] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		int [] neighborsInPart = new int[k];
+		for (int pass = 0; pass < passes; pass++) {
+			for (int i = n - 1; i > 0; i--) {
+				int r = rand.nextInt(i + 1);
+				int temp = order[i];
+				order[i] = order[r];
+				order[r] = temp;
+			}
+			int moves = 0;
+			for (int idx = 0; idx < n; idx++) {
+				int var = order[idx];
+				int degree = g.getDegree(var);
+				for (int j = 0; j < degree; j++) {
+					neighborsInPart[part[g.getNeighbor(var, j)]]++;
+				}
+				int from = part[var];
+				int best = from;
+				long varLoad = load(g, var);
+				for (int j = 0; j < degree; j++) {
+					int p = part[g.getNeighbor(var, j)];
+					if (neighborsInPart[p] > neighborsInPart[best] && partLoad[p] + varLoad <= maxLoad) {
+						best = p;
+					}
+				}
+				for (int j = 0; j < degree; j++) {
+					neighborsInPart[part[g.getNeighbor(var, j)]] = 0;
+				}
+				if (best != from) {
+					part[var] = best;
+					partLoad[from] -= varLoad;
+					partLoad[best] += varLoad;
+					moves++;
+				}
+			}
+			if (moves == 0) {
+				break;
+			}
+		}
+		return part;
+	}
+
+	/**
+	 * Partitions a graph with 10 refinement passes and a pseudorandom number generator seeded from the graph, so
+	 * that the same graph always gets the same partition.
+	 * @param g The constraint graph.
+	 * @param k The number of parts.
+	 * @return The part of every variable, in [0..k-1].
+	 */
+	public static int [] partition(ConstraintGraph g, int k) {
+		return partition(g, k, 10, new Random(31L * g.getNumberOfVariables() + g.getNumberOfEdges()));
+	}
+
+	/**
+	 * Gets the fraction of the edges whose endpoints are in different parts.
+	 * @param g The constraint graph.
+	 * @param part The part of every variable.
+	 * @return The cut ratio, in [0..1].
+	 */
+	public static double cutRatio(ConstraintGraph g, int [] part) {
+		if (g.getNumberOfEdges() == 0) {
+			return 0;
+		}
+		int cut = 0;
+		for (int e = 0; e < g.getNumberOfEdges(); e++) {
+			if (part[g.getEdgeVar1(e)] != part[g.getEdgeVar2(e)]) {
+				cut++;
+			}
+		}
+		return (double) cut / g.getNumberOfEdges();
+	}
+
+	/**
+	 * Gets the load imbalance of a partition: the maximal load of a part divided by the average load.
+	 * @param g The constraint graph.
+	 * @param part The part of every variable.
+	 * @param k The number of parts.
+	 * @return The imbalance; 1 is perfectly balanced.
+	 */
+	public static double loadImbalance(ConstraintGraph g, int [] part, int k) {
+		long [] partLoad = new long[k];
+		long totalLoad = 0;
+		for (int i = 0; i < part.length; i++) {
+			partLoad[part[i]] += load(g, i);
+			totalLoad += load(g, i);
+		}
+		long maxLoad = 0;
+		for (long l : partLoad) {
+			maxLoad = Math.max(maxLoad, l);
+		}
+		return totalLoad == 0 ? 1 : (double) maxLoad * k / totalLoad;
+	}
+
+	private static long load(ConstraintGraph g, int var) {
+		return 1 + g.getDegree(var);
+	}
+}
@@ -0,0 +1,80 @@
+package ext.sim.modules;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative longs (e.g., pairs of variables as <code>i * n + j</code>) in one array, with open
+ * addressing and linear probing, so that an element takes 8 to 32 bytes instead of a boxed entry of a
+ * <code>HashSet&lt;Long&gt;</code>.  It is not thread safe.
+ */
+final class LongHashSet {
+
+	private static final long EMPTY = -1;
+
+	private long [] keys;
+	private int mask;
+	private int size;
+
+	/**
+	 * Constructs an empty set.
+	 * @param expected The number of elements expected, which the set holds without growing.
+	 */
+	LongHashSet(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, 2 * expected - 1)) << 1;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Adds an element.
+	 * @param key The element, non-negative.
+	 * @return Whether the element was added, i.e., was not in the set.
+	 */
+	boolean add(long key) {
+		if (2 * (size + 1) > keys.length) {
+			grow();
+		}
+		int slot = slot(key);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		size++;
+		return true;
+	}
+
+	boolean contains(long key) {
+		for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void grow() {
+		long [] oldKeys = keys;
+		keys = new long[2 * oldKeys.length];
+		Arrays.fill(keys, EMPTY);
+		mask = keys.length - 1;
+		size = 0;
+		for (long key : oldKeys) {
+			if (key != EMPTY) {
+				add(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package ext.sim.modules;
+
+import java.util.Arrays;
+
+import bgu.dcr.az.api.prob.Problem;
+
+/**
+ * The constraint costs of an "events as variables" meeting scheduling problem (see
+ * {@link MeetingSchedulingDCOPGen}), evaluated analytically from compact meeting descriptors instead of t x t
+ * tables: the duration and per-slot time costs of every meeting, and the conflict cost and travel time of every
+ * pair of meetings that share participants.  This takes O(m t + pairs) memory instead of O(pairs t<sup>2</sup>).
+ * <br>
+ * The cost of scheduling meetings <code>i</code> at <code>time1</code> and <code>j</code> at <code>time2</code> is
+ * the integer average of their time costs, plus the conflict cost if <code>time2</code> falls in the window in
+ * which the participants of both cannot attend them and travel between them, or 0 if that is negative.  It is
+ * symmetric.
+ * <br>
+ * Optionally, recently used rows (the costs of one meeting at one time with all the times of another meeting) are
+ * cached.  Every thread has its own direct-mapped cache, keyed by the pair of meetings and the time, so the agents
+ * running on different threads share no lock and a lookup allocates nothing once its row is cached.  The cache only
+ * serves {@link #getCost(int, int, int, int)}, i.e., the
+ * agents reading the costs through the {@link CostFunctionProblem} the generator publishes in analytic mode;
+ * otherwise the generator writes the costs to the tables with {@link #writeTo(Problem)} or to a
+ * {@link CostStore} with {@link #writeTo(CostStore)}.
+ */
+public class MeetingCostFunction implements CostFunction {
+
+	private final int t;
+	private final int numMeetings;
+	private final int [] durations;
+	private final int [][] timeCosts;
+	/**
+	 * The factor all costs are multiplied by (e.g., 1000 in the noise generator).
+	 */
+	private final int scale;
+	/**
+	 * The pairs of meetings with shared participants, as <code>i * numMeetings + j</code> with i &lt; j, sorted.
+	 */
+	private long [] pairKeys = new long[16];
+	private int [] pairConflictCosts = new int[16];
+	private int [] pairTravelTimes = new int[16];
+	private int numPairs;
+	/**
+	 * The pairs of meetings as a constraint graph, with the edges in the order of the pairs.
+	 */
+	private final ConstraintGraph graph;
+	/**
+	 * The row cache of every thread, or <code>null</code> without a cache.
+	 */
+	private final ThreadLocal<RowCache> rowCache;
+
+	/**
+	 * A direct-mapped cache of rows: a row is kept in the slot its key hashes to, replacing the row there.
+	 */
+	private static final class RowCache {
+		final int bits;
+		// the key of the row in every slot, -1 for none
+		final long [] keys;
+		// the rows, as long as the number of time slots
+		final int [][] rows;
+
+		RowCache(int bits, int t) {
+			this.bits = bits;
+			keys = new long[1 << bits];
+			Arrays.fill(keys, -1);
+			rows = new int[1 << bits][t];
+		}
+	}
+
+	/**
+	 * Constructs a cost function with no pairs of meetings.
+	 * @param t The number of time slots.
+	 * @param durations The duration of every meeting.
+	 * @param timeCosts The time costs of every meeting, indexed by time slot.
+	 * @param scale The factor all costs are multiplied by.
+	 * @param cacheRows The number of rows to cache per thread, rounded up to a power of two (0 = no cache).
+	 */
+	public MeetingCostFunction(int t, int [] durations, int [][] timeCosts, int scale, int cacheRows) {
+		this.t = t;
+		this.numMeetings = durations.length;
+		this.durations = durations;
+		this.timeCosts = timeCosts;
+		this.scale = scale;
+		this.graph = new ConstraintGraph(numMeetings);
+		final int bits = 32 - Integer.numberOfLeadingZeros(Math.max(2, cacheRows) - 1);
+		final int slots = t;
+		this.rowCache = cacheRows <= 0 ? null : new ThreadLocal<RowCache>() {
+			@Override
+			protected RowCache initialValue() {
+				return new RowCache(bits, slots);
+			}
+		};
+	}
+
+	/**
+	 * Adds a pair of meetings that share participants.  Pairs must be added in increasing order of
+	 * <code>(i, j)</code>.
+	 * @param i The first meeting.
+	 * @param j The second meeting, larger than <code>i</code>.
+	 * @param conflictCost The cost of scheduling the meetings at conflicting times.
+	 * @param travelTime The travel time between the meetings.
+	 * @throws IllegalArgumentException If the pair is out of order.
+	 */
+	public void addPair(int i, int j, int conflictCost, int travelTime) throws IllegalArgumentException {
+		long key = (long) i * numMeetings + j;
+		if (i >= j || (numPairs > 0 && key <= pairKeys[numPairs - 1])) {
+			throw new IllegalArgumentException("Adding the pair (" + i + ", " + j + ") out of order!");
+		}
+		if (numPairs == pairKeys.length) {
+			pairKeys = Arrays.copyOf(pairKeys, 2 * numPairs);
+			pairConflictCosts = Arrays.copyOf(pairConflictCosts, 2 * numPairs);
+			pairTravelTimes = Arrays.copyOf(pairTravelTimes, 2 * numPairs);
+		}
+		pairKeys[numPairs] = key;
+		pairConflictCosts[numPairs] = conflictCost;
+		pairTravelTimes[numPairs] = travelTime;
+		numPairs++;
+		graph.addEdge(i, j);
+	}
+
+	/**
+	 * Gets the constraint graph of the pairs of meetings that share participants.
+	 */
+	public ConstraintGraph getGraph() {
+		return graph;
+	}
+
+	@Override
+	public int getCost(int var1, int val1, int var2, int val2) {
+		if (var1 > var2) {
+			return getCost(var2, val2, var1, val1);
+		}
+		if (var1 == var2 || !isInDomain(var1, val1) || !isInDomain(var2, val2)) {
+			return 0;
+		}
+		int pair = Arrays.binarySearch(pairKeys, 0, numPairs, (long) var1 * numMeetings + var2);
+		if (pair < 0) {
+			return 0;
+		}
+		if (rowCache == null) {
+			return cost(pair, var1, val1, var2, val2);
+		}
+		RowCache cache = rowCache.get();
+		long rowKey = (long) pair * t + val1;
+		int slot = (int) ((rowKey * 0x9E3779B97F4A7C15L) >>> (64 - cache.bits));
+		int [] row = cache.rows[slot];
+		if (cache.keys[slot] != rowKey) {
+			for (int time2 = 0; time2 <= t - durations[var2]; time2++) {
+				row[time2] = cost(pair, var1, val1, var2, time2);
+			}
+			cache.keys[slot] = rowKey;
+		}
+		return row[val2];
+	}
+
+	/**
+	 * Writes the nonzero costs of all the pairs of meetings to a problem, in both directions.
+	 * @param prob The problem, initialized with the domain [0..t-duration] for every meeting.
+	 */
+	public void writeTo(Problem prob) {
+		for (int pair = 0; pair < numPairs; pair++) {
+			int i = (int) (pairKeys[pair] / numMeetings);
+			int j = (int) (pairKeys[pair] % numMeetings);
+			for (int time1 = 0; time1 <= t - durations[i]; time1++) {
+				for (int time2 = 0; time2 <= t - durations[j]; time2++) {
+					int totalCost = cost(pair, i, time1, j, time2);
+					if (totalCost > 0) {
+						prob.setConstraintCost(i, time1, j, time2, totalCost);
+						prob.setConstraintCost(j, time2, i, time1, totalCost);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the nonzero costs of all the pairs of meetings to a store, whose edges are the pairs.  The costs are
+	 * written before the scale and then scaled by the store, so that the store is only as wide as the scaled
+	 * costs need.
+	 * @param store A symmetric store over {@link #getGraph()}, with all costs 0, that holds
+	 * {@link #getMaxBaseCost()}.
+	 * @throws IllegalArgumentException If the store is not symmetric or is over another graph.
+	 * @throws ArithmeticException If a scaled cost overflows an int.
+	 */
+	public void writeTo(CostStore store) throws IllegalArgumentException, ArithmeticException {
+		if (!store.isSymmetric() || store.getGraph() != graph) {
+			throw new IllegalArgumentException("The store must be symmetric and over the graph of the meetings!");
+		}
+		for (int pair = 0; pair < numPairs; pair++) {
+			int i = (int) (pairKeys[pair] / numMeetings);
+			int j = (int) (pairKeys[pair] % numMeetings);
+			for (int time1 = 0; time1 <= t - durations[i]; time1++) {
+				for (int time2 = 0; time2 <= t - durations[j]; time2++) {
+					int totalCost = baseCost(pair, i, time1, j, time2);
+					if (totalCost > 0) {
+						// the edges of the graph were added in the order of the pairs
+						store.setCost(pair, i, time1, j, time2, totalCost);
+					}
+				}
+			}
+		}
+		if (scale != 1) {
+			store.scale(scale);
+		}
+	}
+
+	/**
+	 * Gets an upper bound on the costs before the scale: the largest time cost plus the largest conflict cost.
+	 */
+	public int getMaxBaseCost() {
+		int maxTimeCost = 0;
+		for (int [] costs : timeCosts) {
+			for (int cost : costs) {
+				maxTimeCost = Math.max(maxTimeCost, Math.abs(cost));
+			}
+		}
+		int maxConflictCost = 0;
+		for (int pair = 0; pair < numPairs; pair++) {
+			maxConflictCost = Math.max(maxConflictCost, Math.abs(pairConflictCosts[pair]));
+		}
+		return maxTimeCost + maxConflictCost;
+	}
+
+	private boolean isInDomain(int meeting, int time) {
+		return time >= 0 && time <= t - durations[meeting];
+	}
+
+	/**
+	 * Gets a cost, scaled.
+	 * @throws ArithmeticException If the scaled cost overflows an int.
+	 */
+	private int cost(int pair, int i, int time1, int j, int time2) throws ArithmeticException {
+		return Math.multiplyExact(scale, baseCost(pair, i, time1, j, time2));
+	}
+
+	private int baseCost(int pair, int i, int time1, int j, int time2) {
+		int travelTime = pairTravelTimes[pair];
+		// the conflict window is the same as in the generator: from the earliest start of meeting j from which
+		// its participants cannot make it to meeting i, to the last slot before they can make it from i to j
+		int conflictWindowStart = Math.max(0, time1 - (durations[j] - 1 + travelTime));
+		int conflictWindowEnd = Math.min(time1 + durations[i] + travelTime - 1, t - 1);
+		int unaryCost = (timeCosts[i][time1] + timeCosts[j][time2]) / 2;
+		int totalCost = unaryCost + (time2 >= conflictWindowStart && time2 <= conflictWindowEnd ? pairConflictCosts[pair] : 0);
+		// the generator only stores positive costs (the time costs may be negative), so the others read as 0
+		return Math.max(0, totalCost);
+	}
+}
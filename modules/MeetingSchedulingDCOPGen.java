@@ -96,6 +96,14 @@ public class MeetingSchedulingDCOPGen extends AbstractSeedableProbGen {
 	protected int minTimeCost = 0;
 	@Variable(name="time-cost-range", description="number of possible values for unary meeting costs for times", defaultValue="1")
 	protected int timeCostRange=1;
+	@Variable(name="analytic", description="evaluate the costs from the meeting descriptors instead of writing cost tables; agents read them through the CostFunctionProblem published in the problem metadata", defaultValue="false")
+	protected boolean analytic = false;
+	@Variable(name="cost-cache-rows", description="number of rows of the analytic cost function every thread caches, rounded up to a power of two (0 = no cache)", defaultValue="0")
+	protected int costCacheRows = 0;
+	@Variable(name="storage", description="where to keep the costs when not analytic: tables (the problem's), edge (one block per pair of meetings) or off-heap (the same blocks outside of the heap), read by the agents through the CostFunctionProblem published in the problem metadata", defaultValue="tables")
+	protected String storage = "tables";
+	@Variable(name="storage-dir", description="the directory to map the costs to with off-heap storage, in a new file for every problem that is deleted when the JVM exits (empty = direct memory, which is limited by the JVM option -XX:MaxDirectMemorySize, by default the maximal heap size)", defaultValue="")
+	protected String storageDir = "";
 	
 	/**
 	 * How to generate participants for meetings:
@@ -191,38 +199,37 @@ public class MeetingSchedulingDCOPGen extends AbstractSeedableProbGen {
 		}
 		prob.initialize(ProblemType.DCOP, domains);
 
-		// now we add constraints.  there are binary constraints between meetings 
+		// now we add constraints.  there are binary constraints between meetings that share participants; their
+		// costs follow from the meeting descriptors (durations, time costs, conflict costs and travel times), which
+		// are kept in a MeetingCostFunction that either writes the costs to the tables or to a cost store or, if
+		// analytic, is published with a view of the problem that evaluates them on demand
+		int [] durations = new int[meetings.length];
+		int [][] timeCosts = new int[meetings.length][];
+		for (int i = 0; i < meetings.length; i++) {
+			durations[i] = meetings[i].duration;
+			timeCosts[i] = meetings[i].costs;
+		}
+		MeetingCostFunction costFunction = new MeetingCostFunction(t, durations, timeCosts, 1, analytic ? costCacheRows : 0);
 		for (int i = 0; i < meetings.length; i++) {
 			Meeting meeting1 = meetings[i];
 			for (int j = i + 1; j < meetings.length; j++) {
 				Meeting meeting2 = meetings[j];
 				if (meeting1.getNumOverlap(meeting2) > 0) {
-					for (int time1 :domains.get(i)) {
-						// conflict window begins at earliest starting time for the meeting2 when 
-						// participants in both meetings cannot make it to the meeting1 before the scheduled
-						// start of meeting1
-						int conflictWindowStart = Math.max(0, time1 - (meeting2.duration - 1 + travelTimes[j][i]));
-						// conflict window ends when participants in both meeting can make it from meeting1 to
-						// meeting2 before the scheduled start of meeting2.  this is the last (i.e., inclusive)
-						// time slot with a conflict
-						int conflictWindowEnd = Math.min(time1 + meeting1.duration + travelTimes[i][j] - 1, t-1);
-						// compute cost of a conflict
-						int cost = computeConflictCost(meeting1, meeting2);
-						for (int time2 : domains.get(j)) {
-							// add in the unary cost; as in Hilla's code we take the integer average so that
-							// the total cost is spread over the two constraints
-							int unaryCost = (meeting1.getTimeCost(time1) + meeting2.getTimeCost(time2)) / 2;
-							// we only add the conflict cost if the meeting times conflict
-							int totalCost = unaryCost + (time2 >= conflictWindowStart && time2 <= conflictWindowEnd ? cost : 0);
-							if (totalCost > 0) {
-								prob.setConstraintCost(i, time1, j, time2, totalCost);
-								prob.setConstraintCost(j, time2, i, time1, totalCost);
-							}
-						}
-					}
+					costFunction.addPair(i, j, computeConflictCost(meeting1, meeting2), travelTimes[i][j]);
 				}
 			}
 		}
+		if (analytic) {
+			new CostFunctionProblem(prob, ProblemType.DCOP, costFunction.getGraph(), costFunction).publish();
+		} else {
+			CostStore store = CostStore.create(storage, storageDir, costFunction.getGraph(), prob, true, costFunction.getMaxBaseCost());
+			if (store == null) {
+				costFunction.writeTo(prob);
+			} else {
+				costFunction.writeTo(store);
+				store.publish(prob, ProblemType.DCOP);
+			}
+		}
 	}
 
 	public int getNumAgents() {
@@ -0,0 +1,213 @@
+package ext.sim.modules;
+
+import java.lang.reflect.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.Message;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.ano.Variable;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.SystemClock;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.api.prob.ImmutableProblem;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+
+/**
+ * Statistic collector for where the rounds of an algorithm spend their messages and constraint checks.  For every
+ * tick it records, per message type, the number of messages sent and their payload (the number of values in the
+ * arguments, where an array counts its length and <code>null</code> nothing), and the constraint checks all the
+ * agents made in the tick (as a row of type {@link #ALL_TYPES}, with the totals of the tick): those Agent Zero
+ * counts, plus the cost lookups through the {@link CostFunctionProblem} of generators that do not write the costs
+ * to the problem's tables, which Agent Zero does not count.  The agents run one phase per tick, so the types
+ * sent in a tick tell the phase.  The rows have the same <code>PROBNUM</code> and <code>TICK</code> as the ones of
+ * {@link AnytimePerTickSC}, so the two can be analyzed together.
+ * <br>
+ * The counters are striped ({@link LongAdder}) and indexed by message type, so counting a message takes no lock
+ * and allocates nothing; they are drained once per tick.
+ */
+@Register(name="message-stats-sc")
+public class MessageStatsSC extends AbstractStatisticCollector<MessageStatsSC.MessageStatsDBRecord> {
+
+	/**
+	 * The message type of the rows with the totals of a tick, including its constraint checks.
+	 */
+	public static final String ALL_TYPES = "*";
+
+	public static enum Type { MESSAGES, PAYLOAD, CONSTRAINT_CHECKS }
+
+	@Variable(name="type", description="Type of statistic to show [MESSAGES | PAYLOAD | CONSTRAINT_CHECKS]", defaultValue="MESSAGES")
+	Type type = Type.MESSAGES;
+
+	// the index of every message type seen so far in the counters
+	private final ConcurrentHashMap<String, Integer> typeIndex = new ConcurrentHashMap<String, Integer>();
+	private volatile String [] typeNames = new String[0];
+	private volatile LongAdder [] messages = new LongAdder[0];
+	private volatile LongAdder [] payload = new LongAdder[0];
+	private long lastConstraintChecks;
+	private long lastTick;
+
+	public static class MessageStatsDBRecord extends DBRecord {
+		final int probNum;
+		final long tick;
+		final String messageType;
+		final long messages;
+		final long payload;
+		final long constraintChecks;
+
+		MessageStatsDBRecord(int probNum, long tick, String messageType, long messages, long payload, long constraintChecks) {
+			this.probNum = probNum;
+			this.tick = tick;
+			this.messageType = messageType;
+			this.messages = messages;
+			this.payload = payload;
+			this.constraintChecks = constraintChecks;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "MESSAGE_STATS";
+		}
+	}
+
+	public VisualModel analyze(Database db, Test r) {
+		final String query;
+		final LineVisualModel line;
+		switch (type) {
+		case MESSAGES:
+			query = "select ALGORITHM_INSTANCE, MESSAGETYPE, TICK, AVG(CAST(MESSAGES as DOUBLE)) as VAL from MESSAGE_STATS where MESSAGETYPE <> '" + ALL_TYPES + "' group by ALGORITHM_INSTANCE,MESSAGETYPE,TICK order by TICK";
+			line = new LineVisualModel("time", "Messages", "Messages Sent per Type");
+			break;
+		case PAYLOAD:
+			query = "select ALGORITHM_INSTANCE, MESSAGETYPE, TICK, AVG(CAST(PAYLOAD as DOUBLE)) as VAL from MESSAGE_STATS where MESSAGETYPE <> '" + ALL_TYPES + "' group by ALGORITHM_INSTANCE,MESSAGETYPE,TICK order by TICK";
+			line = new LineVisualModel("time", "Payload", "Values Sent per Message Type");
+			break;
+		case CONSTRAINT_CHECKS:
+			query = "select ALGORITHM_INSTANCE, MESSAGETYPE, TICK, AVG(CAST(CONSTRAINTCHECKS as DOUBLE)) as VAL from MESSAGE_STATS where MESSAGETYPE = '" + ALL_TYPES + "' group by ALGORITHM_INSTANCE,MESSAGETYPE,TICK order by TICK";
+			line = new LineVisualModel("time", "Constraint Checks", "Constraint Checks per Tick");
+			break;
+		default:
+			throw new AssertionError("Unknown type \"" + type + "\"!");
+		}
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				String series = rs.getString("ALGORITHM_INSTANCE");
+				if (type != Type.CONSTRAINT_CHECKS) {
+					series += ":" + rs.getString("MESSAGETYPE");
+				}
+				line.setPoint(series, rs.getInt("TICK"), rs.getFloat("VAL"));
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return line;
+	}
+
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		typeIndex.clear();
+		typeNames = new String[0];
+		messages = new LongAdder[0];
+		payload = new LongAdder[0];
+		// the view of the problem counts the lookups of all the runs on it, the agents count only their own
+		lastConstraintChecks = lookupsOf(ex);
+		lastTick = 0;
+		new Hooks.BeforeMessageSentHook() {
+			@Override
+			public void hook(int sender, int recepiennt, Message msg) {
+				Integer k = typeIndex.get(msg.getName());
+				if (k == null) {
+					k = register(msg.getName());
+				}
+				messages[k].increment();
+				payload[k].add(payloadOf(msg));
+			}
+		}.hookInto(ex);
+		new Hooks.TickHook() {
+			@Override
+			public void hook(SystemClock clock) {
+				drain(agents, ex, clock.time());
+			}
+		}.hookInto(ex);
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				// the messages of the last tick
+				drain(agents, ex, lastTick + 1);
+			}
+		}.hookInto(ex);
+	}
+
+	public String getName() {
+		return "Messages and Constraint Checks per Tick";
+	}
+
+	// adds a new message type to the counters; types are few, so the arrays are copied
+	private synchronized Integer register(String name) {
+		Integer k = typeIndex.get(name);
+		if (k != null) {
+			return k;
+		}
+		k = typeNames.length;
+		String [] newTypeNames = Arrays.copyOf(typeNames, k + 1);
+		LongAdder [] newMessages = Arrays.copyOf(messages, k + 1);
+		LongAdder [] newPayload = Arrays.copyOf(payload, k + 1);
+		newTypeNames[k] = name;
+		newMessages[k] = new LongAdder();
+		newPayload[k] = new LongAdder();
+		typeNames = newTypeNames;
+		messages = newMessages;
+		payload = newPayload;
+		typeIndex.put(name, k);
+		return k;
+	}
+
+	// submits the counts of a tick and resets the counters
+	private void drain(Agent[] agents, Execution ex, long tick) {
+		int probNum = ex.getTest().getCurrentProblemNumber();
+		long totalMessages = 0;
+		long totalPayload = 0;
+		for (int k = 0; k < typeNames.length; k++) {
+			long m = messages[k].sumThenReset();
+			long p = payload[k].sumThenReset();
+			if (m > 0) {
+				submit(new MessageStatsDBRecord(probNum, tick, typeNames[k], m, p, 0));
+				totalMessages += m;
+				totalPayload += p;
+			}
+		}
+		long constraintChecks = 0;
+		for (Agent agent : agents) {
+			constraintChecks += agent.getNumberOfConstraintChecks();
+		}
+		constraintChecks += lookupsOf(ex);
+		submit(new MessageStatsDBRecord(probNum, tick, ALL_TYPES, totalMessages, totalPayload, constraintChecks - lastConstraintChecks));
+		lastConstraintChecks = constraintChecks;
+		lastTick = tick;
+	}
+
+	// the cost lookups Agent Zero does not count, through the view of a problem whose costs are not in its tables
+	private static long lookupsOf(Execution ex) {
+		ImmutableProblem view = CostFunctionProblem.of(ex.getGlobalProblem());
+		return view instanceof CostFunctionProblem ? ((CostFunctionProblem) view).getNumberOfLookups() : 0;
+	}
+
+	private static long payloadOf(Message msg) {
+		long size = 0;
+		for (Object arg : msg.getArgs()) {
+			if (arg != null) {
+				size += arg.getClass().isArray() ? Array.getLength(arg) : 1;
+			}
+		}
+		return size;
+	}
+}
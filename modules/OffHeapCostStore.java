@@ -0,0 +1,286 @@
+package ext.sim.modules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Constraint cost blocks laid out outside of the Java heap, for instances whose costs do not fit (or would
+ * dominate the collector) in the heap.  The blocks are those of {@link EdgeCostStore}, one per edge (two in
+ * asymmetric mode) in the same narrowest width, but they are kept in direct buffers, or in a memory-mapped file
+ * when a file is given, so that multi-GB instances leave on the heap only the {@link ConstraintGraph} and the
+ * start of every block.
+ * <br>
+ * A buffer is limited to 2GB, so the blocks are appended to chunks that are allocated as constraints are added,
+ * doubling in size up to {@link #CHUNK_BYTES}; a block never straddles two chunks.  A file-backed store creates
+ * a new file in the directory it is given and maps every chunk to the next region of it, so the stores of the
+ * problems of a run never share a file: the agents of a previous problem may still read theirs.  The files are
+ * deleted when the JVM exits.
+ * <br>
+ * Direct buffers are limited by the JVM option <code>-XX:MaxDirectMemorySize</code>, which defaults to the maximal
+ * heap size (<code>-Xmx</code>), so a store in direct memory that is larger than the heap needs the option, e.g.,
+ * <code>-Xmx2g -XX:MaxDirectMemorySize=16g</code>, or else fails with an <code>OutOfMemoryError</code>
+ * ("Direct buffer memory").  A file-backed store is not limited by it.
+ * <br>
+ * Generators write their costs here when their <code>storage</code> variable is {@link CostStore#OFF_HEAP}.
+ * Costs can be read concurrently once they are all set.
+ */
+public class OffHeapCostStore extends CostStore {
+
+	/**
+	 * The maximal size of a chunk.
+	 */
+	public static final int CHUNK_BYTES = 1 << 30;
+	private static final int FIRST_CHUNK_BYTES = 1 << 16;
+
+	private final ConstraintGraph graph;
+	private final int [] domainSizes;
+	private final boolean symmetric;
+	private final File file;
+	/**
+	 * The number of bytes per cost: 1, 2 or 4.
+	 */
+	private int width;
+	/**
+	 * The block of every edge, as <code>chunk &lt;&lt; 32 | offset</code> with the offset in bytes.
+	 */
+	private long [] blockStart;
+	private ByteBuffer [] chunks;
+	private int numChunks;
+	/**
+	 * The number of bytes used in the last chunk.
+	 */
+	private int used;
+	private long numBytes;
+	/**
+	 * The number of bytes of the file mapped so far.
+	 */
+	private long fileLength;
+
+	/**
+	 * Constructs a store over a constraint graph, with all costs 0.  The edges the graph already has get their
+	 * blocks at once, and the constraints added later are added to it.
+	 * @param graph The constraint graph.
+	 * @param domainSizes The domain size of every variable.
+	 * @param symmetric Whether the costs are the same in both directions of every constraint.
+	 * @param maxCost The maximal absolute cost that will be stored, which determines the storage width.
+	 * @param directory The directory of the file to map the store to, or <code>null</code> to keep it in direct
+	 * (anonymous) memory.
+	 * @throws IllegalStateException If the file cannot be created or mapped.
+	 */
+	public OffHeapCostStore(ConstraintGraph graph, int [] domainSizes, boolean symmetric, int maxCost, File directory)
+			throws IllegalStateException {
+		this.graph = graph;
+		this.domainSizes = domainSizes;
+		this.symmetric = symmetric;
+		this.file = directory == null ? null : createFile(directory);
+		this.width = EdgeCostStore.widthFor(maxCost);
+		this.blockStart = new long[Math.max(16, graph.getNumberOfEdges())];
+		this.chunks = new ByteBuffer[4];
+		for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+			addBlock(e);
+		}
+	}
+
+	@Override
+	public ConstraintGraph getGraph() {
+		return graph;
+	}
+
+	@Override
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+	/**
+	 * Gets the number of bytes per stored cost.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the file the store is mapped to.
+	 * @return The file, or <code>null</code> for a store in direct memory.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the number of off-heap bytes allocated for the costs.
+	 */
+	public long getNumberOfBytes() {
+		return numBytes;
+	}
+
+	@Override
+	public int addConstraint(int var1, int var2) throws IllegalStateException {
+		graph.addEdge(var1, var2);
+		int edge = graph.getNumberOfEdges() - 1;
+		addBlock(edge);
+		return edge;
+	}
+
+	@Override
+	public void setCost(int edge, int var1, int val1, int var2, int val2, int cost) throws IllegalArgumentException {
+		if (EdgeCostStore.widthFor(cost) > width) {
+			throw new IllegalArgumentException("Cost " + cost + " does not fit in " + width + " byte(s)!");
+		}
+		write(chunks, width, blockStart[edge], entry(var1, val1, var2, val2), cost);
+	}
+
+	@Override
+	public void scale(int factor) throws ArithmeticException {
+		int maxCost = 0;
+		for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+			for (int entry = 0; entry < blockSize(e); entry++) {
+				maxCost = Math.max(maxCost, Math.abs(Math.multiplyExact(read(chunks, width, blockStart[e], entry), factor)));
+			}
+		}
+		if (EdgeCostStore.widthFor(maxCost) > width) {
+			widen(EdgeCostStore.widthFor(maxCost));
+		}
+		for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+			for (int entry = 0; entry < blockSize(e); entry++) {
+				write(chunks, width, blockStart[e], entry, read(chunks, width, blockStart[e], entry) * factor);
+			}
+		}
+	}
+
+	@Override
+	public int getCost(int var1, int val1, int var2, int val2) {
+		int edge = var1 == var2 ? -1 : graph.getEdge(var1, var2);
+		return edge < 0 ? 0 : read(chunks, width, blockStart[edge], entry(var1, val1, var2, val2));
+	}
+
+	/**
+	 * Writes a file-backed store to its file; does nothing for a store in direct memory.
+	 */
+	public void force() {
+		for (int c = 0; c < numChunks; c++) {
+			if (chunks[c] instanceof MappedByteBuffer) {
+				((MappedByteBuffer) chunks[c]).force();
+			}
+		}
+	}
+
+	// the index of a cost in the block of its edge, as in EdgeCostStore
+	private int entry(int var1, int val1, int var2, int val2) {
+		if (var1 < var2) {
+			return val1 * domainSizes[var2] + val2;
+		}
+		int entry = val2 * domainSizes[var1] + val1;
+		return symmetric ? entry : entry + domainSizes[var1] * domainSizes[var2];
+	}
+
+	private int blockSize(int edge) {
+		return domainSizes[graph.getEdgeVar1(edge)] * domainSizes[graph.getEdgeVar2(edge)] * (symmetric ? 1 : 2);
+	}
+
+	// allocates the block of an edge at the end of the last chunk, or in a new chunk if it does not fit there
+	private void addBlock(int edge) throws IllegalStateException {
+		long blockBytes = (long) width * blockSize(edge);
+		if (blockBytes > CHUNK_BYTES) {
+			throw new IllegalStateException("The costs of edge " + edge + " take more than " + CHUNK_BYTES + " bytes!");
+		}
+		if (numChunks == 0 || used + blockBytes > chunks[numChunks - 1].capacity()) {
+			int size = numChunks == 0 ? FIRST_CHUNK_BYTES : (int) Math.min(CHUNK_BYTES, 2L * chunks[numChunks - 1].capacity());
+			addChunk((int) Math.max(size, blockBytes));
+		}
+		if (edge == blockStart.length) {
+			blockStart = Arrays.copyOf(blockStart, 2 * edge);
+		}
+		blockStart[edge] = (long) (numChunks - 1) << 32 | used;
+		used += blockBytes;
+	}
+
+	private void addChunk(int size) throws IllegalStateException {
+		ByteBuffer chunk;
+		if (file == null) {
+			chunk = ByteBuffer.allocateDirect(size);
+		} else {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(fileLength + size);
+					chunk = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength, size);
+				} finally {
+					// the mapping stays valid after the file is closed
+					raf.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot map " + size + " bytes of " + file + "!", e);
+			}
+			fileLength += size;
+		}
+		chunk.order(ByteOrder.nativeOrder());
+		if (numChunks == chunks.length) {
+			chunks = Arrays.copyOf(chunks, 2 * numChunks);
+		}
+		chunks[numChunks++] = chunk;
+		numBytes += size;
+		used = 0;
+	}
+
+	private static File createFile(File directory) throws IllegalStateException {
+		try {
+			File file = File.createTempFile("costs", ".bin", directory);
+			file.deleteOnExit();
+			return file;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot create a file in " + directory + "!", e);
+		}
+	}
+
+	// lays the blocks out again with a wider width, copying the costs; a file grows past the narrower copy
+	private void widen(int newWidth) {
+		ByteBuffer [] oldChunks = chunks;
+		long [] oldBlockStart = blockStart;
+		int oldWidth = width;
+		chunks = new ByteBuffer[4];
+		numChunks = 0;
+		numBytes = 0;
+		blockStart = new long[oldBlockStart.length];
+		width = newWidth;
+		for (int e = 0; e < graph.getNumberOfEdges(); e++) {
+			addBlock(e);
+			for (int entry = 0; entry < blockSize(e); entry++) {
+				write(chunks, width, blockStart[e], entry, read(oldChunks, oldWidth, oldBlockStart[e], entry));
+			}
+		}
+	}
+
+	private static int read(ByteBuffer [] chunks, int width, long block, int entry) {
+		ByteBuffer chunk = chunks[(int) (block >>> 32)];
+		int pos = (int) block + width * entry;
+		switch (width) {
+		case 1:
+			return chunk.get(pos);
+		case 2:
+			return chunk.getShort(pos);
+		default:
+			return chunk.getInt(pos);
+		}
+	}
+
+	private static void write(ByteBuffer [] chunks, int width, long block, int entry, int cost) {
+		ByteBuffer chunk = chunks[(int) (block >>> 32)];
+		int pos = (int) block + width * entry;
+		switch (width) {
+		case 1:
+			chunk.put(pos, (byte) cost);
+			break;
+		case 2:
+			chunk.putShort(pos, (short) cost);
+			break;
+		default:
+			chunk.putInt(pos, cost);
+		}
+	}
+}
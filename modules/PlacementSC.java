@@ -0,0 +1,124 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.Message;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.ano.Variable;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+
+/**
+ * Statistic collector that estimates what a placement of the agents on worker threads would gain.  Agent Zero
+ * schedules the agents itself, so nothing is placed: for every problem the constraint graph is partitioned with
+ * {@link GraphPartitioner} into <code>threads</code> parts, and the collector records the cut ratio of the
+ * partition (the fraction of constraints crossing parts), the fraction of the messages sent during the run that
+ * would have crossed threads, and the load imbalance of the parts.  It only reads the problem.
+ */
+@Register(name="placement-sc")
+public class PlacementSC extends AbstractStatisticCollector<PlacementSC.PlacementDBRecord> {
+
+	public static enum Type { CUT_RATIO, CROSS_MESSAGES, IMBALANCE }
+
+	@Variable(name="type", description="Type of statistic to show [CUT_RATIO | CROSS_MESSAGES | IMBALANCE]", defaultValue="CROSS_MESSAGES")
+	Type type = Type.CROSS_MESSAGES;
+	@Variable(name="threads", description="Number of worker threads to partition the agents for", defaultValue="4")
+	int threads = 4;
+
+	private int [] placement;
+	// messages may be sent from several agent threads at once
+	private final AtomicLong numMessages = new AtomicLong();
+	private final AtomicLong numCrossMessages = new AtomicLong();
+
+	public static class PlacementDBRecord extends DBRecord {
+		final int probNum;
+		final int threads;
+		final double cutRatio;
+		final double crossMessageRatio;
+		final double imbalance;
+
+		PlacementDBRecord(int probNum, int threads, double cutRatio, double crossMessageRatio, double imbalance) {
+			this.probNum = probNum;
+			this.threads = threads;
+			this.cutRatio = cutRatio;
+			this.crossMessageRatio = crossMessageRatio;
+			this.imbalance = imbalance;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "PLACEMENT";
+		}
+	}
+
+	public VisualModel analyze(Database db, Test r) {
+		final String column;
+		final LineVisualModel line;
+		switch (type) {
+		case CUT_RATIO:
+			column = "CUTRATIO";
+			line = new LineVisualModel("problem", "Cut Ratio", "Constraints Crossing Threads");
+			break;
+		case CROSS_MESSAGES:
+			column = "CROSSMESSAGERATIO";
+			line = new LineVisualModel("problem", "Cross-Thread Messages", "Messages Crossing Threads");
+			break;
+		case IMBALANCE:
+			column = "IMBALANCE";
+			line = new LineVisualModel("problem", "Load Imbalance", "Maximal / Average Thread Load");
+			break;
+		default:
+			throw new AssertionError("Unknown type \"" + type + "\"!");
+		}
+		String query = "select ALGORITHM_INSTANCE, PROBNUM, AVG(" + column + ") as VAL from PLACEMENT group by ALGORITHM_INSTANCE,PROBNUM order by PROBNUM";
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getInt("PROBNUM"), rs.getFloat("VAL"));
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return line;
+	}
+
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		final ConstraintGraph graph = ConstraintGraph.read(ex.getGlobalProblem());
+		final int parts = threads;
+		placement = GraphPartitioner.partition(graph, parts);
+		numMessages.set(0);
+		numCrossMessages.set(0);
+		new Hooks.BeforeMessageSentHook() {
+			@Override
+			public void hook(int sender, int recepiennt, Message msg) {
+				numMessages.incrementAndGet();
+				if (placement[sender] != placement[recepiennt]) {
+					numCrossMessages.incrementAndGet();
+				}
+			}
+		}.hookInto(ex);
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				long messages = numMessages.get();
+				double crossMessageRatio = messages == 0 ? 0 : (double) numCrossMessages.get() / messages;
+				submit(new PlacementDBRecord(ex.getTest().getCurrentProblemNumber(), parts,
+						GraphPartitioner.cutRatio(graph, placement), crossMessageRatio,
+						GraphPartitioner.loadImbalance(graph, placement, parts)));
+			}
+		}.hookInto(ex);
+	}
+
+	public String getName() {
+		return "Agent Placement";
+	}
+}
@@ -0,0 +1,105 @@
+package ext.sim.modules;
+
+/**
+ * Random constraint costs computed on demand by a counter-based hash of <code>(seed, var1, val1, var2, val2)</code>,
+ * so that only the constraint graph is stored.  The same inputs always give the same cost, and distinct inputs
+ * give independent draws, which reproduces the distributions of the table-based generators:
+ * <ul>
+ * <li>{@link Model#UNIFORM} (random uniform and k-regular ADCOPs): every directed cost is uniform in
+ * [0..maxCost] and is zeroed with probability <code>p2</code>.</li>
+ * <li>{@link Model#SPLIT} (scale free ADCOPs): a cost uniform in [0..maxCost-1] is drawn per pair of values and
+ * split between the two directions, the smaller variable getting a share uniform in [1..cost].</li>
+ * </ul>
+ * The hash is the SplitMix64 finalizer applied to the inputs one at a time.
+ * <br>
+ * The generators add the constraints to the graph and publish the function through a
+ * {@link CostFunctionProblem}, which is where the agents read the costs from.
+ */
+public class ProceduralCostFunction implements CostFunction {
+
+	public static enum Model { UNIFORM, SPLIT }
+
+	private final ConstraintGraph graph;
+	private final Model model;
+	private final long seed;
+	private final int maxCost;
+	private final double p2;
+
+	/**
+	 * Constructs a cost function.
+	 * @param graph The constraint graph; pairs that are not constrained cost 0.
+	 * @param model The cost distribution.
+	 * @param seed The seed, e.g., drawn from the generator's pseudorandom number generator.
+	 * @param maxCost The maximal cost.
+	 * @param p2 The probability that a cost is zeroed (ignored by {@link Model#SPLIT}).
+	 */
+	public ProceduralCostFunction(ConstraintGraph graph, Model model, long seed, int maxCost, double p2) {
+		this.graph = graph;
+		this.model = model;
+		this.seed = seed;
+		this.maxCost = maxCost;
+		this.p2 = p2;
+	}
+
+	public ConstraintGraph getGraph() {
+		return graph;
+	}
+
+	@Override
+	public int getCost(int var1, int val1, int var2, int val2) {
+		if (var1 == var2 || !graph.isConstrained(var1, var2)) {
+			return 0;
+		}
+		return getEdgeCost(var1, val1, var2, val2);
+	}
+
+	/**
+	 * Gets a cost of a pair of variables that is known to be constrained, without looking it up in the graph.
+	 * @see #getCost(int, int, int, int)
+	 */
+	public int getEdgeCost(int var1, int val1, int var2, int val2) {
+		switch (model) {
+		case UNIFORM:
+			long h = hash(var1, val1, var2, val2);
+			// the high bits give the cost and the low bits decide whether it is zeroed
+			if ((h & 0xFFFFFFFFL) < p2 * 0x100000000L) {
+				return 0;
+			}
+			return (int) ((h >>> 32) % (maxCost + 1));
+		case SPLIT:
+			if (var1 < var2) {
+				return splitShare(var1, val1, var2, val2);
+			}
+			return splitCost(var2, val2, var1, val1) - splitShare(var2, val2, var1, val1);
+		default:
+			throw new AssertionError("Unknown model \"" + model + "\"!");
+		}
+	}
+
+	// the cost of a pair of values of var1 < var2 before it is split
+	private int splitCost(int var1, int val1, int var2, int val2) {
+		return maxCost <= 0 ? 0 : (int) ((hash(var1, val1, var2, val2) >>> 1) % maxCost);
+	}
+
+	// the share of var1 < var2 of the cost of a pair of values
+	private int splitShare(int var1, int val1, int var2, int val2) {
+		int cost = splitCost(var1, val1, var2, val2);
+		if (cost == 0) {
+			return 0;
+		}
+		return 1 + (int) ((mix(hash(var1, val1, var2, val2) ^ 0x5DEECE66DL) >>> 1) % cost);
+	}
+
+	private long hash(int var1, int val1, int var2, int val2) {
+		long h = mix(seed + 0x9E3779B97F4A7C15L * (var1 + 1L));
+		h = mix(h ^ var2);
+		return mix(h ^ (((long) val1 << 32) | (val2 & 0xFFFFFFFFL)));
+	}
+
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -46,24 +46,50 @@ public class RandomUniformADCOPGen extends UnstructuredDCOPGen {
     float p1 = 0.6f;
     @Variable(name = "p2", description = "probablity of constraint between two values", defaultValue = "0.5")
     float p2 = 0.5f;
+    @Variable(name = "procedural", description = "compute the costs by a hash of (seed, i, vi, j, vj) instead of storing them; agents read them through the CostFunctionProblem published in the problem metadata", defaultValue = "false")
+    boolean procedural = false;
+    @Variable(name = "storage", description = "where to keep the costs when not procedural: tables (the problem's), edge (one block per constraint) or off-heap (the same blocks outside of the heap), read by the agents through the CostFunctionProblem published in the problem metadata", defaultValue = "tables")
+    String storage = "tables";
+    @Variable(name = "storage-dir", description = "the directory to map the costs to with off-heap storage, in a new file for every problem that is deleted when the JVM exits (empty = direct memory, which is limited by the JVM option -XX:MaxDirectMemorySize, by default the maximal heap size)", defaultValue = "")
+    String storageDir = "";
+
+    //the store the costs are written to, null if they are written to the problem's tables
+    CostStore store;
 
 
     @Override
     public void generate(Problem p, Random rand) {
+        CostFunctionProblem.clear(p);
         p.initialize(ProblemType.ADCOP, n, new ImmutableSet<Integer>(Agt0DSL.range(0, d - 1)));
+        ProceduralCostFunction costs = null;
+        if (procedural) {
+            costs = new ProceduralCostFunction(new ConstraintGraph(n), ProceduralCostFunction.Model.UNIFORM, rand.nextLong(), maxCost, p2);
+        }
+        store = procedural ? null : CostStore.create(storage, storageDir, new ConstraintGraph(n), p, false, maxCost);
         
         for (int i = 0; i < p.getNumberOfVariables(); i++) {
             
             for (int j = i; j < p.getNumberOfVariables(); j++) {
                 
                 if (rand.nextDouble() < p1) {
-                    buildConstraint(i, j, p, false, rand);                   
+                    if (costs == null) {
+                        buildConstraint(i, j, p, false, rand);                   
+                    } else if (i != j) {
+                        costs.getGraph().addEdge(i, j);
+                    }
                 }
             }
         }
+        if (costs != null) {
+            new CostFunctionProblem(p, ProblemType.ADCOP, costs.getGraph(), costs).publish();
+        }
+        if (store != null) {
+            store.publish(p, ProblemType.ADCOP);
+        }
     }
     @Override
         protected void buildConstraint(int i, int j, Problem p, boolean sym, Random rand) {
+            int edge = store != null && i != j ? store.addConstraint(i, j) : -1;
         
             for (int vi = 0; vi < p.getDomain().size(); vi++) {
             for (int vj = 0; vj < p.getDomain().size(); vj++) {
@@ -81,15 +107,24 @@ public class RandomUniformADCOPGen extends UnstructuredDCOPGen {
                     cost2 = 0; 
                 }
                                  
-                    p.setConstraintCost(i, vi, j, vj, cost1);
+                    setCost(p, edge, i, vi, j, vj, cost1);
                     if (sym) {
-                        p.setConstraintCost(j, vj, i, vi, cost1);
+                        setCost(p, edge, j, vj, i, vi, cost1);
                     } else {
-                        p.setConstraintCost(j, vj, i, vi, cost2);
+                        setCost(p, edge, j, vj, i, vi, cost2);
                     }
                 
                 
             }
         }
     }
+
+    //writes a cost to the store, or else to the problem's tables
+    private void setCost(Problem p, int edge, int var1, int val1, int var2, int val2, int cost) {
+        if (store != null) {
+            store.setCost(edge, var1, val1, var2, val2, cost);
+        } else {
+            p.setConstraintCost(var1, val1, var2, val2, cost);
+        }
+    }
 }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 
 import java.util.Collections;
 
+
 import java.util.Random;
 
 import bgu.dcr.az.exen.pgen.AbstractProblemGenerator;
@@ -66,12 +67,58 @@ public class ScaleFreeADCOPGen extends AbstractProblemGenerator {
 
     int growth = 2;
 
+    @Variable(name = "procedural", description = "compute the costs by a hash of (seed, i, vi, j, vj) instead of storing them; agents read them through the CostFunctionProblem published in the problem metadata", defaultValue = "false")
+
+    boolean procedural = false;
+
+    @Variable(name = "storage", description = "where to keep the costs when not procedural: tables (the problem's), edge (one block per constraint) or off-heap (the same blocks outside of the heap), read by the agents through the CostFunctionProblem published in the problem metadata", defaultValue = "tables")
+
+    String storage = "tables";
+
+    @Variable(name = "storage-dir", description = "the directory to map the costs to with off-heap storage, in a new file for every problem that is deleted when the JVM exits (empty = direct memory, which is limited by the JVM option -XX:MaxDirectMemorySize, by default the maximal heap size)", defaultValue = "")
+
+    String storageDir = "";
+
+    //the cost function in procedural mode, null otherwise
+
+    ProceduralCostFunction costs;
+
+    //the store the costs are written to, null if they are in the problem's tables or procedural
+
+    CostStore store;
+
+    //the constraints built so far (the cost function's graph in procedural mode), so that later passes visit only actual edges
+
+    ConstraintGraph graph;
+
+    //the constrained pairs (i * n + j, i < j) of the core while it is built, when the costs are not in the problem's
+
+    //tables, which then has no constraints to check; a vertex added later is only constrained by its own new edges
+
+    LongHashSet coreEdges;
+
     
 
     public void generate(Problem p, Random rand) {
 
+    CostFunctionProblem.clear(p);
+
     p.initialize(ProblemType.ADCOP, n, new ImmutableSet<Integer>(Agt0DSL.range(0, d - 1)));
 
+    costs = null;
+
+    if (procedural) {
+
+    costs = new ProceduralCostFunction(new ConstraintGraph(n), ProceduralCostFunction.Model.SPLIT, rand.nextLong(), maxCost, 0);
+
+    }
+
+    graph = costs != null ? costs.getGraph() : new ConstraintGraph(n);
+
+    store = costs != null ? null : CostStore.create(storage, storageDir, graph, p, false, maxCost);
+
+    coreEdges = costs != null || store != null ? new LongHashSet(core * growth) : null;
+
     double[] degree = new double[n];
 
     double totalDeg = 0;
@@ -132,7 +179,7 @@ Integer v2 = coreSet.get(rand.nextInt(coreSet.size()));
 
 /* not very elegant or efficient but should work (will work better as core becomes larger than growth) */
 
-if (p.isConstrained(v1, v2)){
+if (isConstrained(v1, v2, p)){
 
 j--;
 
@@ -154,22 +201,38 @@ coreSet.add(v1);
 
 }
 
+boolean tables = coreEdges == null;
+
+coreEdges = null;
+
 /* finally we add the remaining vertices to the network */
 
 Collections.shuffle(v,rand);
 
+int[] newNeighbors = new int[growth];
+
 while (!v.isEmpty()) {
 
 Integer v1 = v.get(0);
 
+int numNewNeighbors = 0;
+
 for (int j=0; j<growth; j++){
 
 Integer v2 = coreSet.get(rand.nextInt(coreSet.size()));
 
-if (!p.isConstrained(v1, v2) && rand.nextDouble() < degree[v2]/totalDeg){
+boolean constrained = tables ? p.isConstrained(v1, v2) : contains(newNeighbors, numNewNeighbors, v2);
+
+if (!constrained && rand.nextDouble() < degree[v2]/totalDeg){
 
 buildConstraint(v1, v2, p, rand);
 
+if (!tables) {
+
+newNeighbors[numNewNeighbors++] = v2;
+
+}
+
 degree[v1]++;
 
 degree[v2]++;
@@ -192,11 +255,17 @@ v.remove(v1);
 
 }
 
-for (int i = 0; i < p.getNumberOfVariables(); i++) {
+/* in procedural mode the costs are already split by the cost function */
+
+/* the edges are visited in the (i, j > i) order of a scan over all pairs, so the costs drawn are the same */
+
+for (int i = 0; costs == null && i < p.getNumberOfVariables(); i++) {
+
+for (int k = 0; k < graph.getDegree(i); k++) {
 
-for (int j = i+1; j < p.getNumberOfVariables(); j++) {
+int j = graph.getNeighbor(i, k);
 
-if (p.isConstrained(i, j)) {
+if (j > i) {
 
 splitCost(i, j, p, rand);
 
@@ -204,6 +273,20 @@ splitCost(i, j, p, rand);
 
 }
 
+}
+
+if (costs != null) {
+
+new CostFunctionProblem(p, ProblemType.ADCOP, graph, costs).publish();
+
+} else if (store != null) {
+
+store.publish(p, ProblemType.ADCOP);
+
+} else {
+
+p.getMetadata().put(ConstraintGraph.METADATA_KEY, graph);
+
 }
 
     }
@@ -212,6 +295,30 @@ splitCost(i, j, p, rand);
 
     protected void buildConstraint(int i, int j, Problem p, Random rand) {
 
+        int edge = -1;
+
+        if (store != null) {
+
+            edge = store.addConstraint(i, j);
+
+        } else {
+
+            graph.addEdge(i, j);
+
+        }
+
+        if (coreEdges != null) {
+
+            coreEdges.add((long) Math.min(i, j) * n + Math.max(i, j));
+
+        }
+
+        if (costs != null) {
+
+            return;
+
+        }
+
         for (int vi = 0; vi < p.getDomain().size(); vi++) {
 
             for (int vj = 0; vj < p.getDomain().size(); vj++) {
@@ -220,9 +327,9 @@ splitCost(i, j, p, rand);
 
                 final int cost2 = rand.nextInt(maxCost);
 
-                p.setConstraintCost(i, vi, j, vj, cost1);
+                setCost(p, edge, i, vi, j, vj, cost1);
 
-                p.setConstraintCost(j, vj, i, vi, cost2);
+                setCost(p, edge, j, vj, i, vi, cost2);
 
                 
 
@@ -236,17 +343,69 @@ splitCost(i, j, p, rand);
 
     
 
+    //writes a cost to the store, or else to the problem's tables
+
+    protected void setCost(Problem p, int edge, int var1, int val1, int var2, int val2, int cost) {
+
+        if (store != null) {
+
+            store.setCost(edge, var1, val1, var2, val2, cost);
+
+        } else {
+
+            p.setConstraintCost(var1, val1, var2, val2, cost);
+
+        }
+
+    }
+
+    
+
+    protected boolean isConstrained(int i, int j, Problem p) {
+
+        if (coreEdges == null) {
+
+            return p.isConstrained(i, j);
+
+        }
+
+        return coreEdges.contains((long) Math.min(i, j) * n + Math.max(i, j));
+
+    }
+
+    
+
+    private static boolean contains(int[] vars, int size, int var) {
+
+        for (int k = 0; k < size; k++) {
+
+            if (vars[k] == var) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+
+    }
+
+    
+
 //Split each original costs randomly between the asymmetric costs (in asymmetric problems)
 
 protected void splitCost(int var1, int var2, Problem p, Random rand) {
 
 int originalCost, costVal1, costVal2;
 
+int edge = store != null ? graph.getEdge(var1, var2) : -1;
+
 for (int val1 = 0; val1 < p.getDomainSize(var1); val1++) {
 
 for (int val2 = 0; val2 < p.getDomainSize(var2); val2++) {
 
-originalCost = p.getConstraintCost(var1, val1, var2, val2);
+originalCost = store != null ? store.getCost(var1, val1, var2, val2) : p.getConstraintCost(var1, val1, var2, val2);
 
 if (originalCost > 0) 
 
@@ -258,9 +417,9 @@ costVal1 = 0;
 
 costVal2 = originalCost - costVal1;
 
-p.setConstraintCost(var1, val1, var2, val2, costVal1);
+setCost(p, edge, var1, val1, var2, val2, costVal1);
 
-p.setConstraintCost(var2, val2, var1, val1, costVal2);
+setCost(p, edge, var2, val2, var1, val1, costVal2);
 
 }
 
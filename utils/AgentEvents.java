@@ -0,0 +1,98 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the agents, shown under "DCOP Agents" in JFR tooling (e.g., JDK Mission Control
+ * or <code>jfr print --events ext.sim.AgentPhase</code>).  The agents only create events when their
+ * <code>jfr</code> variable is set, so a run without it pays one boolean test per phase; with it, the events
+ * are also only committed while a recording that enables them is running.
+ */
+public final class AgentEvents {
+
+	private AgentEvents() {
+	}
+
+	@Name("ext.sim.AgentPhase")
+	@Label("Agent Phase")
+	@Category({ "DCOP Agents" })
+	@Description("The execution of one phase of an agent's round in onMailBoxEmpty")
+	@StackTrace(false)
+	public static class Phase extends Event {
+		@Label("Algorithm")
+		public String algorithm;
+		@Label("Agent")
+		public int agent;
+		@Label("Phase")
+		public int phase;
+		@Label("Tick")
+		public long tick;
+		@Label("Sends")
+		@Description("The messages sent in the phase, one per recipient")
+		public int sends;
+	}
+
+	@Name("ext.sim.BudgetEvaluation")
+	@Label("Budget Evaluation")
+	@Category({ "DCOP Agents" })
+	@Description("An evaluation of an agent's cooperation budget")
+	@StackTrace(false)
+	public static class BudgetEvaluation extends Event {
+		@Label("Algorithm")
+		public String algorithm;
+		@Label("Agent")
+		public int agent;
+		@Label("Tick")
+		public long tick;
+		@Label("Budget")
+		public double budget;
+	}
+
+	@Name("ext.sim.NogoodLoop")
+	@Label("Nogood Loop")
+	@Category({ "DCOP Agents" })
+	@Description("The search of GOODS_MGM for nogoods that bring the local cost back within the budget")
+	@StackTrace(false)
+	public static class NogoodLoop extends Event {
+		@Label("Agent")
+		public int agent;
+		@Label("Tick")
+		public long tick;
+		@Label("Iterations")
+		public int iterations;
+	}
+
+	@Name("ext.sim.TabooComputation")
+	@Label("Taboo Computation")
+	@Category({ "DCOP Agents" })
+	@Description("The computation of the taboos and preferences SM_AGC sends to its neighbors")
+	@StackTrace(false)
+	public static class TabooComputation extends Event {
+		@Label("Agent")
+		public int agent;
+		@Label("Tick")
+		public long tick;
+		@Label("Recomputed Neighbors")
+		@Description("The neighbors whose taboos were recomputed because their inputs changed")
+		public int recomputed;
+	}
+
+	/**
+	 * Commits a budget evaluation.  Callers only call it when their <code>jfr</code> variable is set.
+	 */
+	public static void budgetEvaluated(String algorithm, int agent, long tick, double budget) {
+		BudgetEvaluation event = new BudgetEvaluation();
+		if (event.shouldCommit()) {
+			event.algorithm = algorithm;
+			event.agent = agent;
+			event.tick = tick;
+			event.budget = budget;
+			event.commit();
+		}
+	}
+}
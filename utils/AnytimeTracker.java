@@ -0,0 +1,309 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Distributed anytime mechanism for the agents, in the spirit of ALS (Zivan et al., "Explorative anytime local
+ * search for distributed constraint optimization"): it finds the best assignment the agents held during the run
+ * without any global view of the assignment.
+ * <br>
+ * The agents first build a BFS spanning tree of every connected component of the constraint graph, rooted at the
+ * smallest agent id of the component: every agent floods the smallest root it knows with its depth and parent,
+ * and once it heard the announcement of the final root from all of its neighbors and the echo of all of its
+ * children, it echoes its subtree height to its parent.  The echo reaches the root only when the whole component
+ * joined its tree, and the root then sends the tree height and the first tracked round down the tree.
+ * <br>
+ * From then on, every agent records its value and its local cost at the end of every round in a ring buffer, and
+ * sends the sum of the local costs of its subtree for the round to its parent once all of its children sent
+ * theirs.  The root thus learns the cost of every round O(height) ticks after it ended, and when it improves,
+ * sends the round down the tree, where every agent takes its value of that round from its ring buffer.  The
+ * buffer holds the rounds of 2 * height + 4 ticks, which covers the way up and down.  The root only announces
+ * a round that can reach all the agents before the end of the run, so the best assignment is consistent.
+ * <br>
+ * An agent's local cost is its share of the cost of the assignment: the costs of its constraints with its
+ * neighbors' values, each constraint counted by one of its two agents, so that the sum up the tree is the cost
+ * of the round.
+ * <br>
+ * A run that stops early (e.g., by the agents' <code>patience</code>) stops in the same round for all the agents
+ * of a component: an agent that wants to stop calls {@link #requestStop()}, and only the root acts on it, by
+ * sending down the tree a round that reaches all the agents before it ends (see {@link #isStopRound()}).  It
+ * announces no better round afterwards, so all the agents report the values of the same round.  Agents that stop
+ * early without tracking the best assignment use the tracker for the stop only, and it then records and sends no
+ * costs.
+ * <br>
+ * The agent owns the message handlers and the sends, through {@link Host}, and calls {@link #start()},
+ * {@link #endRound()}, {@link #record(int, long)} and {@link #requestStop()}; all the rest is driven by the
+ * messages.  An agent sends
+ * O(degree) messages while the tree is built and O(children) messages per round afterwards.
+ */
+public class AnytimeTracker {
+
+	/**
+	 * The agent's side of the tracker: the message handlers <code>anytimeTree(int i, int root, int depth,
+	 * int parent)</code>, <code>anytimeEcho(int i, int root, int height)</code>, <code>anytimeCost(int i,
+	 * int round, long cost)</code>, <code>anytimeBest(int round, int firstRound, int height)</code> and
+	 * <code>anytimeStop(int stopRound)</code> forward to the tracker's handlers of the same name.
+	 */
+	public interface Host {
+		/**
+		 * Sends a message to one agent.
+		 */
+		void send(String name, int to, Object... args);
+
+		long getSystemTimeInTicks();
+	}
+
+	private final int id;
+	private final List<Integer> neighbors;
+	private final long endTick;
+	private final boolean tracking;
+	private final Host host;
+
+	// the BFS tree
+	private int root;
+	private int parent;
+	private int depth;
+	private int heard;
+	private List<Integer> children = new ArrayList<Integer>();
+	private int echoes;
+	private int subtreeHeight;
+	private boolean echoed;
+
+	// the tracked rounds, once the tree is complete
+	private boolean ready;
+	private int height;
+	private int firstRound;
+	private int round;
+	private boolean snapshotDue;
+	private int nextToReport;
+	private int [] ringRound;
+	private int [] ringValue;
+	private int [] ringChildren;
+	private long [] ringCost;
+
+	// the early stop, decided by the root
+	private boolean stopRequested;
+	private int stopRound = -1;
+
+	private long bestCost = Long.MAX_VALUE;
+	private int bestRound = -1;
+	private int bestValue = -1;
+
+	/**
+	 * Constructs a tracker.
+	 * @param id The agent id.
+	 * @param neighbors The agent's neighbors.
+	 * @param endTick The last tick of the run.
+	 * @param tracking Whether to track the best assignment, or only to build the tree for {@link #requestStop()}.
+	 * @param host The agent.
+	 */
+	public AnytimeTracker(int id, Iterable<Integer> neighbors, long endTick, boolean tracking, Host host) {
+		this.id = id;
+		this.neighbors = new ArrayList<Integer>();
+		for (int neighbor : neighbors)
+			this.neighbors.add(neighbor);
+		this.endTick = endTick;
+		this.tracking = tracking;
+		this.host = host;
+		this.root = id;
+		this.parent = -1;
+	}
+
+	/**
+	 * Starts building the tree, with this agent as the root of its own wave.
+	 */
+	public void start() {
+		announce();
+		checkSubtree();
+	}
+
+	public void anytimeTree(int i, int root, int depth, int parent) {
+		if (root < this.root) {
+			// a smaller root: join its tree, under the first neighbor it came from
+			this.root = root;
+			this.depth = depth + 1;
+			this.parent = i;
+			heard = 0;
+			children.clear();
+			echoes = 0;
+			subtreeHeight = 0;
+			echoed = false;
+			announce();
+		} else if (root > this.root) {
+			// the sender will join the smaller root when it gets our announcement
+			return;
+		}
+		heard++;
+		if (parent == id)
+			children.add(i);
+		checkSubtree();
+	}
+
+	public void anytimeEcho(int i, int root, int height) {
+		if (root != this.root || !children.contains(i))
+			return;
+		echoes++;
+		subtreeHeight = Math.max(subtreeHeight, height + 1);
+		checkSubtree();
+	}
+
+	public void anytimeCost(int i, int round, long cost) {
+		int slot = round % ringRound.length;
+		ringCost[slot] += cost;
+		ringChildren[slot]++;
+		report();
+	}
+
+	public void anytimeBest(int round, int firstRound, int height) {
+		if (!ready)
+			becomeReady(height, firstRound);
+		if (round >= 0)
+			takeRound(round);
+		for (int child : children)
+			host.send("anytimeBest", child, round, firstRound, height);
+		decideStop();
+	}
+
+	public void anytimeStop(int stopRound) {
+		this.stopRound = stopRound;
+		for (int child : children)
+			host.send("anytimeStop", child, stopRound);
+	}
+
+	/**
+	 * Notes the end of a round; the agent then calls {@link #record(int, long)} in its next tick, when the
+	 * neighbors' values of the round were received.
+	 */
+	public void endRound() {
+		round++;
+		snapshotDue = tracking;
+	}
+
+	public boolean isSnapshotDue() {
+		return snapshotDue;
+	}
+
+	/**
+	 * Asks to stop the run early.  At the root, this decides the round in which all the agents of the tree stop,
+	 * as soon as the tree is complete; elsewhere it does nothing, and the agent keeps running until the root's
+	 * decision reaches it.
+	 */
+	public void requestStop() {
+		stopRequested = true;
+		decideStop();
+	}
+
+	/**
+	 * Checks whether the agent should stop at the end of the current round, as decided by the root.
+	 */
+	public boolean isStopRound() {
+		return stopRound >= 0 && round >= stopRound;
+	}
+
+	/**
+	 * Records the agent's value and local cost at the end of the last round.  All the agents record in the same
+	 * tick, so the records of a round are a consistent snapshot of the assignment.
+	 * @param value The agent's value.
+	 * @param localCost The agent's share of the cost of the round: the cost of its constraints with the
+	 * neighbors' values of the round, counting every constraint at one of its two agents only.
+	 */
+	public void record(int value, long localCost) {
+		snapshotDue = false;
+		int recordedRound = round - 1;
+		if (!ready || recordedRound < firstRound)
+			return;
+		int slot = recordedRound % ringRound.length;
+		ringRound[slot] = recordedRound;
+		ringValue[slot] = value;
+		ringCost[slot] = localCost;
+		ringChildren[slot] = 0;
+		report();
+	}
+
+	/**
+	 * Gets the agent's value in the best round found so far.
+	 * @return The value, or -1 if no round was evaluated yet.
+	 */
+	public int getBestValue() {
+		return bestValue;
+	}
+
+	public int getBestRound() {
+		return bestRound;
+	}
+
+	/**
+	 * Gets the cost of the best round found so far (the sum of the agents' local costs); only the root knows it.
+	 */
+	public long getBestCost() {
+		return bestCost;
+	}
+
+	private void announce() {
+		for (int neighbor : neighbors)
+			host.send("anytimeTree", neighbor, id, root, depth, parent);
+	}
+
+	// echoes the subtree to the parent once it is complete, or starts the tracking if this is the root
+	private void checkSubtree() {
+		if (echoed || heard < neighbors.size() || echoes < children.size())
+			return;
+		echoed = true;
+		if (parent != -1) {
+			host.send("anytimeEcho", parent, id, root, subtreeHeight);
+			return;
+		}
+		// the tree height in ticks also bounds the rounds it takes to reach every agent
+		anytimeBest(-1, round + subtreeHeight + 2, subtreeHeight);
+	}
+
+	// at the root, once the tree is complete and a stop was requested, stops after the decision reaches every
+	// agent: it travels one tree level per tick, and a round takes at least a tick
+	private void decideStop() {
+		if (!stopRequested || !ready || parent != -1 || stopRound >= 0)
+			return;
+		anytimeStop(round + height + 2);
+	}
+
+	private void becomeReady(int height, int firstRound) {
+		ready = true;
+		this.height = height;
+		this.firstRound = firstRound;
+		nextToReport = firstRound;
+		int capacity = 2 * height + 4;
+		ringRound = new int[capacity];
+		Arrays.fill(ringRound, -1);
+		ringValue = new int[capacity];
+		ringChildren = new int[capacity];
+		ringCost = new long[capacity];
+	}
+
+	// sends (or, at the root, evaluates) every round whose subtree cost is complete, in order
+	private void report() {
+		while (true) {
+			int slot = nextToReport % ringRound.length;
+			if (ringRound[slot] != nextToReport || ringChildren[slot] < children.size())
+				return;
+			if (parent != -1)
+				host.send("anytimeCost", parent, id, nextToReport, ringCost[slot]);
+			else if (ringCost[slot] < bestCost && host.getSystemTimeInTicks() + height <= endTick && stopRound < 0) {
+				bestCost = ringCost[slot];
+				anytimeBest(nextToReport, firstRound, height);
+			}
+			nextToReport++;
+		}
+	}
+
+	// the ring buffer covers the way of a round up and down the tree, so a round that left it is a bug
+	private void takeRound(int round) throws IllegalStateException {
+		int slot = round % ringRound.length;
+		if (ringRound[slot] != round) {
+			throw new IllegalStateException("Agent " + id + " got the best round " + round + ", which is no longer in its buffer of "
+					+ ringRound.length + " rounds!");
+		}
+		bestRound = round;
+		bestValue = ringValue[slot];
+	}
+}
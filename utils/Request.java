@@ -10,13 +10,20 @@ public class Request {
 	public int    request;
 	public double gain;
 	public long   sendingTime;
+	// the round the request is made for, or -1 when untagged
+	public int    round;
 	
 	public Request(int neighborId, int currentAssignment, int request, double gain,long sendingTime  ){
+		this(neighborId, currentAssignment, request, gain, sendingTime, -1);
+	}
+	
+	public Request(int neighborId, int currentAssignment, int request, double gain, long sendingTime, int round){
 		this.neighborId  = neighborId;
 		this.currentAssignment = currentAssignment;
 		this.request = request;
 		this.gain = gain;
 		this.sendingTime = sendingTime;
+		this.round = round;
 	}
 	public int getNeighborId(){
 		return this.neighborId;
@@ -33,4 +40,8 @@ public class Request {
 	public int getCurrentAssignment(){
 		return this.currentAssignment;
 	}
+	
+	public int getRound(){
+		return this.round;
+	}
 }